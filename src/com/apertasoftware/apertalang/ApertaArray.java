@@ -0,0 +1,179 @@
+package com.apertasoftware.apertalang;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The runtime value of an array literal, a growable Object[] holding already evaluated values.
+ * Indexing is a plain array access and push/pop only copy when the array has to grow.
+ */
+class ApertaArray {
+    private static final Object[] EMPTY = new Object[0];
+
+    private Object[] elements;
+    private int size;
+    // The push and pop methods, made the first time they're looked up and then reused so a loop calling them doesn't allocate.
+    private ApertaCallable pushMethod;
+    private ApertaCallable popMethod;
+
+    ApertaArray(int capacity) {
+        this.elements = capacity == 0 ? EMPTY : new Object[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Makes an array out of values, the array takes the Object[] over instead of copying it.
+     * @param elements - The values of the array.
+     */
+    ApertaArray(Object[] elements) {
+        this.elements = elements;
+        this.size = elements.length;
+    }
+
+    int length() {
+        return size;
+    }
+
+    Object get(int index) {
+        return elements[index];
+    }
+
+    void set(int index, Object value) {
+        elements[index] = value;
+    }
+
+    void push(Object value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(8, size * 2));
+        }
+        elements[size++] = value;
+    }
+
+    Object pop() {
+        if (size == 0) return null;
+        Object value = elements[--size];
+        elements[size] = null;
+        return value;
+    }
+
+    /**
+     * Looks up one of the array's properties, length or one of its methods.
+     * @param name - Name of the property.
+     * @return - The property's value.
+     */
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)size;
+            case "push":
+                if (pushMethod == null) pushMethod = new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        push(arguments.get(0));
+                        return (double)size;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "<native fn push>";
+                    }
+                };
+                return pushMethod;
+            case "pop":
+                if (popMethod == null) popMethod = new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return pop();
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "<native fn pop>";
+                    }
+                };
+                return popMethod;
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    /**
+     * Reads object[index] for arrays and typed arrays, shared by the Interpreter and the VM. Reading past the end gives nil.
+     * @param object - The value being indexed.
+     * @param index - The index, must be a whole number.
+     * @param bracket - The '[' token, used for errors.
+     * @return - The element.
+     */
+    static Object getIndex(Object object, Object index, Token bracket) {
+        if (object instanceof ApertaTypedArray) {
+            ApertaTypedArray array = (ApertaTypedArray)object;
+            int i = checkIndex(index, bracket);
+            if (i >= array.length) return null;
+            return array.read(i);
+        }
+
+        if (!(object instanceof ApertaArray)) {
+            throw new RuntimeError(bracket, "Only arrays can be indexed.");
+        }
+
+        ApertaArray array = (ApertaArray)object;
+        int i = checkIndex(index, bracket);
+        if (i >= array.size) return null;
+        return array.elements[i];
+    }
+
+    /**
+     * Writes object[index] = value for arrays and typed arrays, shared by the Interpreter and the VM.
+     * Writing just past the end appends to an array, typed arrays can't grow.
+     * @param object - The value being indexed.
+     * @param index - The index, must be a whole number.
+     * @param value - The value to store.
+     * @param bracket - The '[' token, used for errors.
+     * @return - The value.
+     */
+    static Object setIndex(Object object, Object index, Object value, Token bracket) {
+        if (object instanceof ApertaTypedArray) {
+            ApertaTypedArray array = (ApertaTypedArray)object;
+            int i = checkIndex(index, bracket);
+            if (i >= array.length) throw new RuntimeError(bracket, "Array index out of bounds.");
+            if (!(value instanceof Double)) throw new RuntimeError(bracket, "Typed arrays can only hold numbers.");
+            array.write(i, (Double)value);
+            return value;
+        }
+
+        if (!(object instanceof ApertaArray)) {
+            throw new RuntimeError(bracket, "Only arrays can be indexed.");
+        }
+
+        ApertaArray array = (ApertaArray)object;
+        int i = checkIndex(index, bracket);
+        if (i < array.size) {
+            array.elements[i] = value;
+        } else if (i == array.size) {
+            array.push(value);
+        } else {
+            throw new RuntimeError(bracket, "Array index out of bounds.");
+        }
+        return value;
+    }
+
+    private static int checkIndex(Object index, Token bracket) {
+        if (index instanceof Double) {
+            double value = (Double)index;
+            int i = (int)value;
+            if (i == value && i >= 0) return i;
+        }
+
+        throw new RuntimeError(bracket, "Array index must be a non-negative whole number.");
+    }
+}
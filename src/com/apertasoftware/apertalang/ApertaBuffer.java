@@ -0,0 +1,283 @@
+package com.apertasoftware.apertalang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Raw bytes that live outside the Java heap, either a memory mapped file from IO.map or a block from IO.allocate.
+ * Numbers are read and written at byte offsets with getInt32, putFloat64 and so on, big endian unless order says otherwise.
+ * A slice shares the memory of the buffer it came from, so writes through either show up in both.
+ */
+class ApertaBuffer {
+    private final ByteBuffer bytes;
+    // The whole file mapping this buffer is part of when it came from IO.map with "rw", null for anything that can't be written back to a file.
+    // Every direct buffer is a MappedByteBuffer as far as the types go, so that can't be told from the bytes themselves.
+    private final MappedByteBuffer mapping;
+    final int length;
+
+    private ApertaBuffer(ByteBuffer bytes, MappedByteBuffer mapping) {
+        this.bytes = bytes;
+        this.mapping = mapping;
+        this.length = bytes.capacity();
+    }
+
+    /**
+     * Maps a whole file into memory.
+     * @param path - The file to map.
+     * @param mode - "r" to only read it, "rw" to write through to the file or "c" to write to a private copy.
+     */
+    static ApertaBuffer map(String path, String mode) throws IOException {
+        FileChannel.MapMode mapMode;
+        StandardOpenOption[] options;
+        switch (mode) {
+            case "r":
+                mapMode = FileChannel.MapMode.READ_ONLY;
+                options = new StandardOpenOption[] { StandardOpenOption.READ };
+                break;
+            case "rw":
+                mapMode = FileChannel.MapMode.READ_WRITE;
+                options = new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+                break;
+            case "c":
+                // The file itself is never written, but a private mapping still needs a channel opened for writing.
+                mapMode = FileChannel.MapMode.PRIVATE;
+                options = new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+                break;
+            default:
+                throw new Error("Map mode must be \"r\", \"rw\" or \"c\".");
+        }
+
+        // The mapping stays valid after the channel is closed.
+        try (FileChannel channel = FileChannel.open(Paths.get(path), options)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new Error("Can't map files bigger than 2GB.");
+            MappedByteBuffer bytes = channel.map(mapMode, 0, channel.size());
+            return new ApertaBuffer(bytes, mapMode == FileChannel.MapMode.READ_WRITE ? bytes : null);
+        }
+    }
+
+    static ApertaBuffer allocate(Object size) {
+        return new ApertaBuffer(ByteBuffer.allocateDirect(position(size, Integer.MAX_VALUE, "Buffer size")), null);
+    }
+
+    private static double number(Object value) {
+        if (!(value instanceof Double)) throw new Error("Buffers can only be read and written with numbers.");
+        return (Double)value;
+    }
+
+    private static int position(Object value, int limit, String what) {
+        double number = number(value);
+        if (number < 0 || number > limit || number != Math.floor(number)) {
+            throw new Error(what + " is out of bounds.");
+        }
+        return (int)number;
+    }
+
+    /**
+     * Checks that size bytes starting at offset are inside the buffer.
+     */
+    private int offset(Object value, int size) {
+        return position(value, length - size, "Offset");
+    }
+
+    /**
+     * Reads a number of the given type, the type being the part of the method name after get or put.
+     */
+    private double read(String type, int offset) {
+        switch (type) {
+            case "Int8": return bytes.get(offset);
+            case "Uint8": return bytes.get(offset) & 0xFF;
+            case "Int16": return bytes.getShort(offset);
+            case "Uint16": return bytes.getShort(offset) & 0xFFFF;
+            case "Int32": return bytes.getInt(offset);
+            case "Uint32": return bytes.getInt(offset) & 0xFFFFFFFFL;
+            case "Float32": return bytes.getFloat(offset);
+            default: return bytes.getDouble(offset);
+        }
+    }
+
+    private void write(String type, int offset, double value) {
+        switch (type) {
+            case "Int8": case "Uint8": bytes.put(offset, (byte)(long)value); break;
+            case "Int16": case "Uint16": bytes.putShort(offset, (short)(long)value); break;
+            case "Int32": case "Uint32": bytes.putInt(offset, (int)(long)value); break;
+            case "Float32": bytes.putFloat(offset, (float)value); break;
+            default: bytes.putDouble(offset, value);
+        }
+    }
+
+    private static int size(String type) {
+        switch (type) {
+            case "Int8": case "Uint8": return 1;
+            case "Int16": case "Uint16": return 2;
+            case "Int32": case "Uint32": case "Float32": return 4;
+            default: return 8;
+        }
+    }
+
+    /**
+     * A view of part of this buffer that keeps its byte order.
+     */
+    private ApertaBuffer view(int start, int end) {
+        ByteBuffer view = bytes.duplicate();
+        view.position(start);
+        view.limit(end);
+        return new ApertaBuffer(view.slice().order(bytes.order()), mapping);
+    }
+
+    /**
+     * Looks up one of the buffer's properties, length or one of its methods.
+     * @param name - Name of the property.
+     * @return - The property's value.
+     */
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)length;
+            case "getInt8": case "getUint8": case "getInt16": case "getUint16":
+            case "getInt32": case "getUint32": case "getFloat32": case "getFloat64": {
+                String type = name.lexeme.substring(3);
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return read(type, offset(arguments.get(0), size(type)));
+                    }
+                };
+            }
+            case "putInt8": case "putUint8": case "putInt16": case "putUint16":
+            case "putInt32": case "putUint32": case "putFloat32": case "putFloat64": {
+                String type = name.lexeme.substring(3);
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        int offset = offset(arguments.get(0), size(type));
+                        try {
+                            write(type, offset, number(arguments.get(1)));
+                        } catch (ReadOnlyBufferException e) {
+                            throw new Error("Buffer is read only.");
+                        }
+                        return ApertaBuffer.this;
+                    }
+                };
+            }
+            case "getString":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        int start = position(arguments.get(0), length, "Offset");
+                        int count = position(arguments.get(1), length - start, "Length");
+                        ByteBuffer text = bytes.duplicate();
+                        text.position(start);
+                        text.limit(start + count);
+                        return StandardCharsets.UTF_8.decode(text).toString();
+                    }
+                };
+            case "putString":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    /**
+                     * Writes the string as UTF-8.
+                     * @return - How many bytes it took.
+                     */
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (!(arguments.get(1) instanceof String)) throw new Error("Can only put strings with putString.");
+                        byte[] text = ((String)arguments.get(1)).getBytes(StandardCharsets.UTF_8);
+                        int start = position(arguments.get(0), length - text.length, "Offset");
+                        ByteBuffer target = bytes.duplicate();
+                        target.position(start);
+                        try {
+                            target.put(text);
+                        } catch (ReadOnlyBufferException e) {
+                            throw new Error("Buffer is read only.");
+                        }
+                        return (double)text.length;
+                    }
+                };
+            case "slice":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        int start = position(arguments.get(0), length, "Slice start");
+                        int end = position(arguments.get(1), length, "Slice end");
+                        if (end < start) throw new Error("Slice end is before its start.");
+                        return view(start, end);
+                    }
+                };
+            case "order":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if ("little".equals(arguments.get(0))) {
+                            bytes.order(ByteOrder.LITTLE_ENDIAN);
+                        } else if ("big".equals(arguments.get(0))) {
+                            bytes.order(ByteOrder.BIG_ENDIAN);
+                        } else {
+                            throw new Error("Byte order must be \"little\" or \"big\".");
+                        }
+                        return ApertaBuffer.this;
+                    }
+                };
+            case "force":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    /**
+                     * Writes changes to a file mapped with "rw" out to disk, does nothing for anything else.
+                     * A slice forces the whole mapping it came from, Java 8 can't force just part of one.
+                     */
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (mapping != null) mapping.force();
+                        return ApertaBuffer.this;
+                    }
+                };
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<buffer " + length + " bytes>";
+    }
+}
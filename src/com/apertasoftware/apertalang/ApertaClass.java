@@ -9,6 +9,8 @@ class ApertaClass implements ApertaCallable {
     final ApertaClass superclass;
     private final Map<String, ApertaFunction> methods;
     private final Map<String, ApertaCallable> $methods;
+    final Shape rootShape = new Shape();
+    int fieldCountHint = 0;
 
     ApertaClass(String name, ApertaClass superclass, Map<String, ApertaFunction> methods) {
         this(name, superclass, methods, new HashMap<>());
@@ -22,12 +24,22 @@ class ApertaClass implements ApertaCallable {
     }
 
     ApertaFunction findMethod(ApertaInstance instance, String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name).bind(instance);
-        }
+        ApertaFunction method = findMethod(name);
+        if (method == null) return null;
+        return method.bind(instance);
+    }
+
+    /**
+     * Finds a method without binding it, used when the method is called straight away so no bound copy is needed.
+     * @param name - Name of the method.
+     * @return - The unbound method, or null if neither this class nor its superclasses have it.
+     */
+    ApertaFunction findMethod(String name) {
+        ApertaFunction method = methods.get(name);
+        if (method != null) return method;
 
         if (superclass != null) {
-            return superclass.findMethod(instance, name);
+            return superclass.findMethod(name);
         }
 
         return null;
@@ -55,7 +67,7 @@ class ApertaClass implements ApertaCallable {
         ApertaInstance instance = new ApertaInstance(this);
         ApertaFunction initializer = methods.get("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.callMethod(interpreter, instance, arguments);
         } else {
             ApertaCallable anonInitializer = $methods.get("init");
             if (anonInitializer != null) {
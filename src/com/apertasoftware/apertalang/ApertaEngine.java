@@ -0,0 +1,96 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The way to run ApertaLang from other Java code.
+ * Source is compiled once into a PreparedScript, which can then be run any number of times, each run getting its own globals.
+ * Errors come back as ApertaErrors instead of being printed, and nothing here ever calls System.exit.
+ */
+public final class ApertaEngine {
+    // Only used by the Optimizer to fold constants, scripts never run on it.
+    private final Interpreter folder;
+    // Files loaded by ~include and ~reference, shared by every script this engine compiles.
+    private final ModuleRegistry modules;
+
+    public ApertaEngine() {
+        this.folder = new Interpreter();
+        this.modules = folder.modules;
+    }
+
+    /**
+     * Scans, parses, optimizes and resolves source code, along with every file it includes.
+     * @param source - The source code.
+     * @return - The compiled script.
+     * @throws ApertaException - If the source has errors, holding all of them.
+     */
+    public PreparedScript compile(CharSequence source) throws ApertaException {
+        Collector errors = new Collector();
+        ErrorReporter previous = ApertaLang.setReporter(errors);
+        try {
+            Scanner scanner = new Scanner(source);
+            Parser parser = new Parser(scanner.scanTokens());
+            List<Stmt> statements = parser.parse();
+            if (!errors.errors.isEmpty()) throw new ApertaException(errors.errors);
+
+            modules.preload(statements);
+            statements = new Optimizer(folder).optimize(statements);
+            Resolver resolver = new Resolver();
+            resolver.resolve(statements);
+            if (!errors.errors.isEmpty()) throw new ApertaException(errors.errors);
+
+            return new PreparedScript(Collections.unmodifiableList(statements), modules, errors.warnings);
+        } finally {
+            ApertaLang.setReporter(previous);
+        }
+    }
+
+    /**
+     * Keeps every error it's given, in order. Safe to report to from several threads at once.
+     */
+    static final class Collector implements ErrorReporter {
+        final List<ApertaError> errors = Collections.synchronizedList(new ArrayList<>());
+        // Kept apart from the errors, a script with only warnings still compiles.
+        final List<ApertaError> warnings = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void report(ApertaError error) {
+            if (error.kind() == ApertaError.Kind.WARNING) {
+                warnings.add(error);
+            } else {
+                errors.add(error);
+            }
+        }
+    }
+
+    /**
+     * Turns a Java value into the closest ApertaLang value, numbers become Doubles and Lists become arrays.
+     */
+    static Object toAperta(Object value) {
+        if (value instanceof Double || value instanceof String || value instanceof Boolean || value == null) return value;
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        if (value instanceof List) {
+            List<?> list = (List<?>)value;
+            ApertaArray array = new ApertaArray(list.size());
+            for (Object element : list) array.push(toAperta(element));
+            return array;
+        }
+        return value;
+    }
+
+    /**
+     * Turns an ApertaLang value into something plain Java code can use, arrays become Lists.
+     */
+    static Object toJava(Object value) {
+        if (value instanceof ApertaArray) {
+            ApertaArray array = (ApertaArray)value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) list.add(toJava(array.get(i)));
+            return list;
+        }
+        return value;
+    }
+}
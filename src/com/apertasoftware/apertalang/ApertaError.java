@@ -0,0 +1,60 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * One error or warning from compiling or running a script, handed to an ErrorReporter instead of being printed.
+ */
+public final class ApertaError {
+    public enum Kind {
+        // Found by the Scanner, Parser, Resolver or Compiler, the script never ran.
+        COMPILE,
+        // Thrown while the script was running.
+        RUNTIME,
+        // Something that's probably a mistake but doesn't stop the script from compiling, found by the Resolver.
+        WARNING
+    }
+
+    private final Kind kind;
+    private final int line;
+    private final int column;
+    private final String where;
+    private final String message;
+
+    ApertaError(Kind kind, int line, int column, String where, String message) {
+        this.kind = kind;
+        this.line = line;
+        this.column = column;
+        this.where = where;
+        this.message = message;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    /**
+     * @return - The column the error is at, or 0 if it isn't known.
+     */
+    public int column() {
+        return column;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    /**
+     * Formats the error the same way the command line prints it.
+     */
+    @Override
+    public String toString() {
+        if (kind == Kind.RUNTIME) return message + "\n[line " + line + "]";
+        if (kind == Kind.WARNING) return "[WARN] " + message + "\n[line " + line + "]";
+
+        String position = column > 0 ? "[line " + line + ", column " + column + "]" : "[line " + line + "]";
+        return position + " Error" + where + ": " + message;
+    }
+}
@@ -0,0 +1,21 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by ApertaEngine.compile when the source has errors and by ScriptResult.call when the call fails, holding every error that was found.
+ */
+public class ApertaException extends Exception {
+    private final List<ApertaError> errors;
+
+    ApertaException(List<ApertaError> errors) {
+        super(errors.isEmpty() ? "Script failed." : errors.get(0).toString());
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    public List<ApertaError> errors() {
+        return errors;
+    }
+}
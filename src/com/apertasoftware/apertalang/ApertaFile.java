@@ -0,0 +1,294 @@
+package com.apertasoftware.apertalang;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A file kept open for writing, made by IO.open. Writes are encoded straight into one buffer and only go to the file
+ * when it fills up, on flush or on close, so writing lots of small records doesn't cost a system call each.
+ * Every handle is tracked by the Interpreter that opened it, which closes the ones the script forgot once its run is over.
+ * Every method locks the handle, so one can be shared between threads.
+ */
+class ApertaFile implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Set<Closeable> owner;
+    private final String path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private CharsetEncoder encoder;
+    private boolean closed = false;
+
+    /**
+     * Opens a file.
+     * @param path - The file to open, it's created if it doesn't exist.
+     * @param mode - "w" to start the file over, "a" to always write at its end or "r+" to write into it from the start, keeping what's there.
+     * @param owner - The open files of the Interpreter opening it, the handle takes itself out again when it's closed.
+     */
+    ApertaFile(String path, String mode, Set<Closeable> owner) throws IOException {
+        OpenOption[] options;
+        switch (mode) {
+            case "w":
+                options = new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING };
+                break;
+            case "a":
+                options = new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND };
+                break;
+            case "r+":
+                options = new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE };
+                break;
+            default:
+                throw new Error("Open mode must be \"w\", \"a\" or \"r+\".");
+        }
+
+        this.path = path;
+        this.channel = FileChannel.open(Paths.get(path), options);
+        this.encoder = encoder(Charset.defaultCharset());
+        this.owner = owner;
+        owner.add(this);
+    }
+
+    private static CharsetEncoder encoder(Charset charset) {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private void checkOpen() {
+        if (closed) throw new Error("File is closed.");
+    }
+
+    synchronized void write(String text) {
+        checkOpen();
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) drain();
+        } while (result.isOverflow());
+        while (encoder.flush(buffer).isOverflow()) drain();
+    }
+
+    /**
+     * Writes at the end of the file no matter where the handle was, leaving it positioned after what was written.
+     */
+    synchronized void append(String text) {
+        checkOpen();
+        try {
+            drain();
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new Error(e.getMessage());
+        }
+        write(text);
+    }
+
+    synchronized void flush() {
+        checkOpen();
+        drain();
+    }
+
+    /**
+     * Where the next write goes, counting what's still in the buffer.
+     */
+    synchronized double position() {
+        checkOpen();
+        try {
+            return (double)(channel.position() + buffer.position());
+        } catch (IOException e) {
+            throw new Error(e.getMessage());
+        }
+    }
+
+    /**
+     * Moves where the next write goes, files opened with "a" always write at the end anyway.
+     */
+    synchronized void seek(long position) {
+        checkOpen();
+        drain();
+        try {
+            channel.position(position);
+        } catch (IOException e) {
+            throw new Error(e.getMessage());
+        }
+    }
+
+    synchronized void encoding(String name) {
+        checkOpen();
+        Charset charset;
+        try {
+            charset = Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            throw new Error("Unknown encoding '" + name + "'.");
+        }
+        encoder = encoder(charset);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        try {
+            drain();
+        } finally {
+            closed = true;
+            owner.remove(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new Error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes out whatever is in the buffer.
+     */
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new Error(e.getMessage());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Looks up one of the handle's methods.
+     * @param name - Name of the property.
+     * @return - The property's value.
+     */
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "write":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        write(interpreter.stringify(arguments.get(0)));
+                        return ApertaFile.this;
+                    }
+                };
+            case "writeLine":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        write(interpreter.stringify(arguments.get(0)) + "\n");
+                        return ApertaFile.this;
+                    }
+                };
+            case "append":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        append(interpreter.stringify(arguments.get(0)));
+                        return ApertaFile.this;
+                    }
+                };
+            case "flush":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        flush();
+                        return ApertaFile.this;
+                    }
+                };
+            case "close":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        close();
+                        return null;
+                    }
+                };
+            case "position":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return position();
+                    }
+                };
+            case "seek":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        Object position = arguments.get(0);
+                        if (!(position instanceof Double) || (Double)position < 0 || (Double)position != Math.floor((Double)position)) {
+                            throw new Error("Seek position must be a whole number that isn't negative.");
+                        }
+                        seek((long)(double)(Double)position);
+                        return ApertaFile.this;
+                    }
+                };
+            case "encoding":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (!(arguments.get(0) instanceof String)) throw new Error("Encoding must be a string.");
+                        encoding((String)arguments.get(0));
+                        return ApertaFile.this;
+                    }
+                };
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+}
@@ -7,6 +7,12 @@ class ApertaFunction implements ApertaCallable {
     private final Environment closure;
     private final boolean isInitializer;
 
+    // Profile used to decide when to hand the function to the JitCompiler.
+    private int invocations = 0;
+    private long loopIterations = 0;
+    private boolean profiling = JitCompiler.ENABLED;
+    private volatile JitCode compiled = null;
+
     ApertaFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
         this.isInitializer = isInitializer;
         this.closure = closure;
@@ -14,32 +20,110 @@ class ApertaFunction implements ApertaCallable {
     }
 
     ApertaFunction bind(ApertaInstance instance) {
-        Environment environment = new Environment(closure);
+        Environment environment = new Environment(closure, 1);
         environment.define("this", instance);
-        return new ApertaFunction(declaration, environment, isInitializer);
+        ApertaFunction bound = new ApertaFunction(declaration, environment, isInitializer);
+        // The compiled code reads 'this' from the closure the same way a call with a receiver does, so the copy can share it.
+        bound.compiled = compiled;
+        return bound;
+    }
+
+    /**
+     * Calls the function as a method of an instance without making a bound copy of it first.
+     * @param interpreter - Self explanatory.
+     * @param receiver - The instance 'this' refers to.
+     * @param arguments - List of arguments needed by the method.
+     * @return - Whatever the method returns.
+     */
+    Object callMethod(Interpreter interpreter, ApertaInstance receiver, List<Object> arguments) {
+        return TailCall.run(interpreter, this, step(interpreter, receiver, arguments));
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+        return TailCall.run(interpreter, this, step(interpreter, null, arguments));
+    }
+
+    /**
+     * Makes the call once without following any tail call the body returns.
+     * @param interpreter - Self explanatory.
+     * @param receiver - The instance 'this' refers to when calling an unbound method, otherwise null.
+     * @param arguments - List of arguments needed by the function.
+     * @return - The returned value, already checked against the return type, or the TailCall the body returned.
+     */
+    Object step(Interpreter interpreter, ApertaInstance receiver, List<Object> arguments) {
+        Environment enclosing = closure;
+        if (receiver != null) {
+            enclosing = new Environment(closure, 1);
+            enclosing.define("this", receiver);
+        }
+
+        // Read once, another thread might deoptimize the function at the same time.
+        JitCode code = compiled;
+        if (code != null) {
+            Object result = code.enter(this, enclosing, interpreter, arguments);
+            if (result != JitCode.FALLBACK) return result;
+        } else if (profiling) {
+            return profile(interpreter, enclosing, arguments);
         }
+        return invoke(interpreter, enclosing, arguments);
+    }
+
+    /**
+     * Sends the function back to the Interpreter for good, called when compiled code finds out its guesses were wrong.
+     * @param code - The code that gave up, a newer one isn't thrown away.
+     */
+    void deoptimize(JitCode code) {
+        if (compiled == code) compiled = null;
+    }
+
+    /**
+     * Runs the call in the Interpreter while counting calls and loop iterations, compiles the function once either gets hot.
+     */
+    private Object profile(Interpreter interpreter, Environment enclosing, List<Object> arguments) {
+        long loopsBefore = interpreter.loopIterations;
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if(declaration.returnType.type == TokenType.VOID) return null;
-            if(declaration.returnType.type == TokenType.ANY) return returnValue.value;
-            if((returnValue.value instanceof Double && declaration.returnType.type != TokenType.NUMBER) || (returnValue.value instanceof String && declaration.returnType.type != TokenType.STRING)) {
-                throw new RuntimeError(declaration.name, "Return type doesn't match return value.");
+            return invoke(interpreter, enclosing, arguments);
+        } finally {
+            invocations++;
+            loopIterations += interpreter.loopIterations - loopsBefore;
+            if (profiling && (invocations >= JitCompiler.CALL_THRESHOLD || loopIterations >= JitCompiler.LOOP_THRESHOLD)) {
+                // Only ever try once, a function that can't be compiled or had to deoptimize stays interpreted.
+                profiling = false;
+                compiled = JitCompiler.compile(declaration, isInitializer);
             }
-            return returnValue.value;
         }
+    }
 
-        if (isInitializer) return closure.getAt(0, "this");
+    private Object invoke(Interpreter interpreter, Environment enclosing, List<Object> arguments) {
+        Environment environment = new Environment(enclosing);
+        for (int i = 0; i < declaration.parameters.size(); i++) {
+            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+        }
+        if (interpreter.executeBlock(declaration.body, environment) == Completion.RETURN) {
+            Object value = interpreter.takeReturnValue();
+            if (value instanceof TailCall) return value;
+            return checkReturn(value);
+        }
+
+        if (isInitializer) return enclosing.getAt(0, 0);
         return null;
     }
 
+    /**
+     * Checks a returned value against the declared return type, shared with the VM so both engines agree.
+     * @param value - The value given to the return statement.
+     * @return - The value the caller actually gets back.
+     */
+    Object checkReturn(Object value) {
+        if(declaration.returnType.type == TokenType.VOID) return null;
+        if(declaration.returnType.type == TokenType.ANY) return value;
+        if((value instanceof Double && declaration.returnType.type != TokenType.NUMBER) || (value instanceof String && declaration.returnType.type != TokenType.STRING)) {
+            throw new RuntimeError(declaration.name, "Return type doesn't match return value.");
+        }
+        return value;
+    }
+
     @Override
     public int arity() {
         return declaration.parameters.size();
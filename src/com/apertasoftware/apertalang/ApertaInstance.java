@@ -1,32 +1,97 @@
 package com.apertasoftware.apertalang;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * An instance of an ApertaClass. Fields live in a plain array and the instance's Shape says which slot holds which field.
+ */
 public class ApertaInstance {
-    private ApertaClass klass;
-    public final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    final ApertaClass klass;
+    Shape shape;
+    Object[] slots;
 
     ApertaInstance(ApertaClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.slots = klass.fieldCountHint == 0 ? NO_FIELDS : new Object[klass.fieldCountHint];
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) {
+            return slots[index];
         }
 
         ApertaFunction method = klass.findMethod(this, name.lexeme);
         if (method != null) return method;
 
-        Object callable = klass.get(name);
-        if(callable != null) return klass.get(name);
+        // Falls back to the class's own callables, which throws if there's nothing by that name either.
+        return klass.get(name);
+    }
+
+    /**
+     * Reads a field through a Get site's inline cache, filling the cache in when the shape is new to the site.
+     * @param expr - The Get expression being evaluated.
+     * @return - The field's value, or whatever get(Token) finds if there's no field with that name.
+     */
+    Object get(Expr.Get expr) {
+        Shape.CacheEntry cache = expr.cache;
+        if (cache != null && cache.before == shape) {
+            return slots[cache.slot];
+        }
+
+        int index = shape.indexOf(expr.name.lexeme);
+        if (index == -1) return get(expr.name);
 
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        expr.cache = new Shape.CacheEntry(shape, shape, index);
+        return slots[index];
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        set(name.lexeme, value);
+    }
+
+    void set(String name, Object value) {
+        int index = shape.indexOf(name);
+        if (index == -1) {
+            index = addField(shape.withField(name));
+        }
+        slots[index] = value;
+    }
+
+    /**
+     * Writes a field through a Set site's inline cache. Sites that add a field cache the transition as well.
+     * @param expr - The Set expression being evaluated.
+     * @param value - The value to store.
+     */
+    void set(Expr.Set expr, Object value) {
+        Shape.CacheEntry cache = expr.cache;
+        if (cache != null && cache.before == shape) {
+            if (cache.after != shape) addField(cache.after);
+            slots[cache.slot] = value;
+            return;
+        }
+
+        Shape before = shape;
+        int index = shape.indexOf(expr.name.lexeme);
+        if (index == -1) {
+            index = addField(shape.withField(expr.name.lexeme));
+        }
+        expr.cache = new Shape.CacheEntry(before, shape, index);
+        slots[index] = value;
+    }
+
+    private int addField(Shape next) {
+        if (next.size > slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(next.size, slots.length * 2));
+        }
+        if (next.size > klass.fieldCountHint) {
+            klass.fieldCountHint = next.size;
+        }
+        shape = next;
+        return next.size - 1;
     }
 
     @Override
@@ -13,11 +13,24 @@ public class ApertaLambda implements ApertaCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        TailCall.run(interpreter, this, step(interpreter, arguments));
+        return null;
+    }
+
+    /**
+     * Runs the body once without following a tail call it returns.
+     * Lambdas give back nil whatever they return, the same as in the VM, but a returned call still has to be made.
+     * @return - The TailCall the body returned, otherwise null.
+     */
+    Object step(Interpreter interpreter, List<Object> arguments) {
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.parameters.size(); i++) {
             environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
         }
-        interpreter.executeBlock(declaration.body, environment);
+        if (interpreter.executeBlock(declaration.body, environment) == Completion.RETURN) {
+            Object value = interpreter.takeReturnValue();
+            if (value instanceof TailCall) return value;
+        }
         return null;
     }
 
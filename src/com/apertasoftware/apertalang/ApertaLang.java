@@ -1,21 +1,63 @@
 package com.apertasoftware.apertalang;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ApertaLang {
-    private static final Interpreter interpreter = new Interpreter();
+    // Only made by main, so embedding an ApertaEngine doesn't set up a command line interpreter nobody uses.
+    private static Interpreter interpreter = null;
+    private static VM vm = null;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
+    // Prints errors to stderr and warnings to stdout and sets the flags above, used unless an ApertaEngine installs its own reporter.
+    static final ErrorReporter STDERR = new ErrorReporter() {
+        @Override
+        public void report(ApertaError error) {
+            // Whatever the script printed before the error should show up before it.
+            if (interpreter != null) interpreter.out.flush();
+            if (error.kind() == ApertaError.Kind.WARNING) {
+                // Warnings go along with the script's own output and don't make it fail.
+                System.out.println(error);
+                return;
+            }
+            System.err.println(error);
+            if (error.kind() == ApertaError.Kind.RUNTIME) {
+                hadRuntimeError = true;
+            } else {
+                hadError = true;
+            }
+        }
+    };
+
+    private static final ThreadLocal<ErrorReporter> reporter = new ThreadLocal<ErrorReporter>() {
+        @Override
+        protected ErrorReporter initialValue() {
+            return STDERR;
+        }
+    };
+    static boolean verbose = false;
+
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: Japt [file]");
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        interpreter = new Interpreter();
+        // Files the script opened and never closed still get what was buffered for them, however the program ends.
+        Runtime.getRuntime().addShutdownHook(new Thread(interpreter::closeFiles));
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                vm = new VM(interpreter);
+            } else if (arg.equals("--verbose") || arg.equals("-v")) {
+                verbose = true;
+            } else {
+                files.add(arg);
+            }
+        }
+
+        if (files.size() > 1) {
+            System.out.println("Usage: Japt [--vm] [--verbose] [file]");
+        } else if (files.size() == 1) {
+            runFile(files.get(0));
         } else {
             runPrompt();
         }
@@ -27,8 +69,7 @@ public class ApertaLang {
      * @throws IOException - Using File throws an IOException, mainly if the file doesn't exist.
      */
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        execute(AstCache.load(path));
 
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
@@ -46,6 +87,7 @@ public class ApertaLang {
             System.out.println("> ");
             run(reader.readLine());
             hadError = false;
+            hadRuntimeError = false;
         }
     }
 
@@ -53,22 +95,53 @@ public class ApertaLang {
      * The actual interpreter process used by both runFile and runPrompt.
      * @param source - The source code to be run.
      */
-    private static void run(String source) {
+    private static void run(CharSequence source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        execute(parser.parse());
+    }
 
+    /**
+     * Optimizes, resolves and runs parsed statements, whether they came from the Parser or the AstCache.
+     * @param statements - The parsed statements.
+     */
+    private static void execute(List<Stmt> statements) {
         // Stop if there's a parsing error.
         if (hadError) return;
 
-        Resolver resolver = new Resolver(interpreter);
+        // Parse everything the script includes up front, in parallel, instead of one file at a time as the directives run.
+        interpreter.modules.preload(statements);
+
+        statements = new Optimizer(interpreter).optimize(statements);
+
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // Stop if there's a resolution error.
         if (hadError) return;
 
-        interpreter.interpret(statements);
+        VMFunction script = null;
+        if (vm != null) {
+            script = Compiler.compile(statements);
+
+            // Stop if there's a compile error.
+            if (hadError) return;
+        }
+
+        try {
+            if (script != null) {
+                vm.interpret(script);
+            } else {
+                interpreter.interpret(statements);
+            }
+
+            // A runtime error ends the script, its callbacks with it.
+            if (!hadRuntimeError) interpreter.runEvents();
+        } finally {
+            // Print is buffered, this is where it all goes out at the latest.
+            interpreter.out.flush();
+        }
     }
 
     /**
@@ -77,19 +150,39 @@ public class ApertaLang {
      * @param message - The message to print.
      */
     static void error(int line, String message) {
-        report(line, "", message);
+        report(line, 0, "", message);
+    }
+
+    /**
+     * An alternate overload to the Report function used by the Scanner, which knows the column as well.
+     * @param line - Line in the source code where the error happened.
+     * @param column - Column in the line where the error happened.
+     * @param message - The message to print.
+     */
+    static void error(int line, int column, String message) {
+        report(line, column, "", message);
     }
 
     /**
      * A function used by the parser and interpreter to throw compile errors.
      * @param line - Line in the source code where the error happened.
+     * @param column - Column in the line where the error happened, 0 if it isn't known.
      * @param where - Where specifically the error happened in the line.
      * @param message - The message to print.
      */
-    private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    private static void report(int line, int column, String where, String message) {
+        reporter.get().report(new ApertaError(ApertaError.Kind.COMPILE, line, column, where, message));
+    }
+
+    /**
+     * Sends errors on this thread somewhere else, returns the reporter that was there before so it can be put back.
+     * @param errors - The new reporter.
+     * @return - The previous reporter.
+     */
+    static ErrorReporter setReporter(ErrorReporter errors) {
+        ErrorReporter previous = reporter.get();
+        reporter.set(errors);
+        return previous;
     }
 
     /**
@@ -99,9 +192,9 @@ public class ApertaLang {
      */
     static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+            report(token.line, token.column, " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(token.line, token.column, " at '" + token.lexeme + "'", message);
         }
     }
 
@@ -111,9 +204,15 @@ public class ApertaLang {
      * @param message - The warning to print.
      */
     static void warn(Token token, String message) {
-        System.out.println(
-                "[WARN] " + message + "\n[line " + token.line + "]"
-        );
+        reporter.get().report(new ApertaError(ApertaError.Kind.WARNING, token.line, token.column, "", message));
+    }
+
+    /**
+     * Prints extra information about what the interpreter is doing, only when run with --verbose.
+     * @param message - The message to print.
+     */
+    static void verbose(String message) {
+        if (verbose) System.err.println("[VERBOSE] " + message);
     }
 
     /**
@@ -121,7 +220,6 @@ public class ApertaLang {
      * @param error - The error caught.
      */
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+        reporter.get().report(new ApertaError(ApertaError.Kind.RUNTIME, error.token.line, error.token.column, "", error.getMessage()));
     }
 }
@@ -0,0 +1,105 @@
+package com.apertasoftware.apertalang;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads a file one line at a time as the script asks for them, made by IO.lineReader.
+ * Only the current line is ever in memory, so files bigger than the heap can be gone through.
+ * Like an ApertaFile it's tracked by the Interpreter that made it, so one the script stops reading early is still closed when the run is over.
+ */
+class ApertaLineReader implements Closeable {
+    private final Set<Closeable> owner;
+    private final String path;
+    private BufferedReader reader;
+    private double lineCount = 0;
+
+    /**
+     * Opens a file for reading.
+     * @param path - The file to read.
+     * @param owner - The open files of the Interpreter opening it, the reader takes itself out again when it's closed.
+     */
+    ApertaLineReader(String path, Set<Closeable> owner) throws IOException {
+        this.path = path;
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), Charset.defaultCharset()));
+        this.owner = owner;
+        owner.add(this);
+    }
+
+    /**
+     * Reads the next line, closing the file once there's nothing left.
+     * @return - The line without its line break, or null at the end of the file.
+     */
+    synchronized String next() {
+        if (reader == null) return null;
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                close();
+            } else {
+                lineCount++;
+            }
+            return line;
+        } catch (IOException e) {
+            throw new Error(e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reader == null) return;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new Error(e.getMessage());
+        } finally {
+            reader = null;
+            owner.remove(this);
+        }
+    }
+
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "line":
+                return lineCount;
+            case "next":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return next();
+                    }
+                };
+            case "close":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        close();
+                        return null;
+                    }
+                };
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<line reader " + path + ">";
+    }
+}
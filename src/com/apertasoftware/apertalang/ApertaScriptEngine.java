@@ -0,0 +1,99 @@
+package com.apertasoftware.apertalang;
+
+import javax.script.*;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The javax.script adapter over ApertaEngine. Engine and global scope bindings become globals of the script,
+ * and every global the script defines or changes is written back into the engine scope afterwards. Print goes to the context's writer.
+ * Use compile to get a CompiledScript that can be run again without being parsed again.
+ */
+public class ApertaScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final ApertaScriptEngineFactory factory;
+    private final ApertaEngine engine = new ApertaEngine();
+
+    ApertaScriptEngine(ApertaScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        try {
+            return new Compiled(engine.compile(script));
+        } catch (ApertaException e) {
+            ApertaError first = e.errors().get(0);
+            throw new ScriptException(e.getMessage(), null, first.line(), first.column() > 0 ? first.column() : -1);
+        }
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            for (int read; (read = reader.read(buffer)) != -1;) source.append(buffer, 0, read);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    private final class Compiled extends CompiledScript {
+        private final PreparedScript script;
+
+        Compiled(PreparedScript script) {
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Map<String, Object> bindings = new HashMap<>();
+            Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            if (global != null) bindings.putAll(global);
+            Bindings scope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            if (scope != null) bindings.putAll(scope);
+
+            ScriptResult result = script.run(bindings, context.getWriter());
+            if (scope != null) scope.putAll(result.globals());
+
+            if (!result.succeeded()) {
+                ApertaError error = result.errors().get(0);
+                throw new ScriptException(error.message(), null, error.line());
+            }
+            // Scripts are statements, there's no value left over to return.
+            return null;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return ApertaScriptEngine.this;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.apertasoftware.apertalang;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lets javax.script find ApertaLang, registered in META-INF/services so new ScriptEngineManager().getEngineByName("apertalang") works.
+ */
+public class ApertaScriptEngineFactory implements ScriptEngineFactory {
+    private static final String VERSION = "1.0";
+
+    @Override
+    public String getEngineName() {
+        return "ApertaLang";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("apt");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return Collections.singletonList("application/x-apertalang");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return Arrays.asList("apertalang", "ApertaLang", "aperta");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "ApertaLang";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // Each run gets its own Interpreter, but the engine scope Bindings are read and written back without locking.
+            case "THREADING":
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String object, String method, String... arguments) {
+        StringBuilder call = new StringBuilder(object).append('.').append(method).append('(');
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) call.append(", ");
+            call.append(arguments[i]);
+        }
+        return call.append(')').toString();
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) program.append(statement).append(";\n");
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new ApertaScriptEngine(this);
+    }
+}
@@ -0,0 +1,414 @@
+package com.apertasoftware.apertalang;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed length arrays of numbers backed by a primitive array instead of boxed Doubles.
+ * A slice is a view that shares the backing array with the array it came from, so writes through either show up in both.
+ */
+abstract class ApertaTypedArray {
+    final int offset;
+    final int length;
+
+    ApertaTypedArray(int offset, int length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Name of the type, used when printing.
+     */
+    abstract String kind();
+
+    /**
+     * Reads an element, the index is relative to the start of this view.
+     */
+    abstract double read(int index);
+
+    /**
+     * Writes an element, converting the number to whatever the backing array holds.
+     */
+    abstract void write(int index, double value);
+
+    abstract ApertaTypedArray view(int offset, int length);
+
+    abstract void fill(double value);
+
+    /**
+     * Copies all of source into this array starting at index, with a plain array copy when both are the same type.
+     */
+    abstract void copyFrom(ApertaTypedArray source, int index);
+
+    abstract double sum();
+
+    abstract double min();
+
+    abstract double max();
+
+    static final class Float64 extends ApertaTypedArray {
+        final double[] data;
+
+        Float64(int length) {
+            this(new double[length], 0, length);
+        }
+
+        Float64(double[] data, int offset, int length) {
+            super(offset, length);
+            this.data = data;
+        }
+
+        @Override
+        String kind() {
+            return "Float64Array";
+        }
+
+        @Override
+        double read(int index) {
+            return data[offset + index];
+        }
+
+        @Override
+        void write(int index, double value) {
+            data[offset + index] = value;
+        }
+
+        @Override
+        ApertaTypedArray view(int start, int count) {
+            return new Float64(data, offset + start, count);
+        }
+
+        @Override
+        void fill(double value) {
+            Arrays.fill(data, offset, offset + length, value);
+        }
+
+        @Override
+        void copyFrom(ApertaTypedArray source, int index) {
+            if (source instanceof Float64) {
+                System.arraycopy(((Float64)source).data, source.offset, data, offset + index, source.length);
+            } else {
+                for (int i = 0; i < source.length; i++) data[offset + index + i] = source.read(i);
+            }
+        }
+
+        @Override
+        double sum() {
+            double sum = 0;
+            for (int i = offset; i < offset + length; i++) sum += data[i];
+            return sum;
+        }
+
+        @Override
+        double min() {
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = offset; i < offset + length; i++) min = Math.min(min, data[i]);
+            return min;
+        }
+
+        @Override
+        double max() {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = offset; i < offset + length; i++) max = Math.max(max, data[i]);
+            return max;
+        }
+    }
+
+    /**
+     * 32 bit signed integers, numbers are cut to whole numbers and wrapped around into range when stored, the same as ByteArray and Buffer writes.
+     */
+    static final class Int32 extends ApertaTypedArray {
+        final int[] data;
+
+        Int32(int length) {
+            this(new int[length], 0, length);
+        }
+
+        Int32(int[] data, int offset, int length) {
+            super(offset, length);
+            this.data = data;
+        }
+
+        @Override
+        String kind() {
+            return "Int32Array";
+        }
+
+        @Override
+        double read(int index) {
+            return data[offset + index];
+        }
+
+        @Override
+        void write(int index, double value) {
+            data[offset + index] = (int)(long)value;
+        }
+
+        @Override
+        ApertaTypedArray view(int start, int count) {
+            return new Int32(data, offset + start, count);
+        }
+
+        @Override
+        void fill(double value) {
+            Arrays.fill(data, offset, offset + length, (int)(long)value);
+        }
+
+        @Override
+        void copyFrom(ApertaTypedArray source, int index) {
+            if (source instanceof Int32) {
+                System.arraycopy(((Int32)source).data, source.offset, data, offset + index, source.length);
+            } else {
+                for (int i = 0; i < source.length; i++) data[offset + index + i] = (int)(long)source.read(i);
+            }
+        }
+
+        @Override
+        double sum() {
+            long sum = 0;
+            for (int i = offset; i < offset + length; i++) sum += data[i];
+            return sum;
+        }
+
+        @Override
+        double min() {
+            if (length == 0) return Double.POSITIVE_INFINITY;
+            int min = Integer.MAX_VALUE;
+            for (int i = offset; i < offset + length; i++) min = Math.min(min, data[i]);
+            return min;
+        }
+
+        @Override
+        double max() {
+            if (length == 0) return Double.NEGATIVE_INFINITY;
+            int max = Integer.MIN_VALUE;
+            for (int i = offset; i < offset + length; i++) max = Math.max(max, data[i]);
+            return max;
+        }
+    }
+
+    /**
+     * Unsigned bytes, numbers are wrapped into 0 to 255 when stored.
+     */
+    static final class Bytes extends ApertaTypedArray {
+        final byte[] data;
+
+        Bytes(int length) {
+            this(new byte[length], 0, length);
+        }
+
+        Bytes(byte[] data, int offset, int length) {
+            super(offset, length);
+            this.data = data;
+        }
+
+        @Override
+        String kind() {
+            return "ByteArray";
+        }
+
+        @Override
+        double read(int index) {
+            return data[offset + index] & 0xff;
+        }
+
+        @Override
+        void write(int index, double value) {
+            data[offset + index] = (byte)(long)value;
+        }
+
+        @Override
+        ApertaTypedArray view(int start, int count) {
+            return new Bytes(data, offset + start, count);
+        }
+
+        @Override
+        void fill(double value) {
+            Arrays.fill(data, offset, offset + length, (byte)(long)value);
+        }
+
+        @Override
+        void copyFrom(ApertaTypedArray source, int index) {
+            if (source instanceof Bytes) {
+                System.arraycopy(((Bytes)source).data, source.offset, data, offset + index, source.length);
+            } else {
+                for (int i = 0; i < source.length; i++) data[offset + index + i] = (byte)(long)source.read(i);
+            }
+        }
+
+        @Override
+        double sum() {
+            long sum = 0;
+            for (int i = offset; i < offset + length; i++) sum += data[i] & 0xff;
+            return sum;
+        }
+
+        @Override
+        double min() {
+            if (length == 0) return Double.POSITIVE_INFINITY;
+            int min = 255;
+            for (int i = offset; i < offset + length; i++) min = Math.min(min, data[i] & 0xff);
+            return min;
+        }
+
+        @Override
+        double max() {
+            if (length == 0) return Double.NEGATIVE_INFINITY;
+            int max = 0;
+            for (int i = offset; i < offset + length; i++) max = Math.max(max, data[i] & 0xff);
+            return max;
+        }
+    }
+
+    /**
+     * Makes a typed array for one of the constructors in Globals.
+     * @param kind - The kind of array to make, one of the names kind() returns.
+     * @param argument - Either the length, or an array (typed or not) of numbers to copy.
+     * @return - The new array.
+     */
+    static ApertaTypedArray create(String kind, Object argument) {
+        if (argument instanceof Double) {
+            double value = (Double)argument;
+            if (value < 0 || value != Math.floor(value) || value > Integer.MAX_VALUE) {
+                throw new Error(kind + " length must be a non-negative whole number.");
+            }
+            return allocate(kind, (int)value);
+        }
+
+        if (argument instanceof ApertaTypedArray) {
+            ApertaTypedArray source = (ApertaTypedArray)argument;
+            ApertaTypedArray array = allocate(kind, source.length);
+            array.copyFrom(source, 0);
+            return array;
+        }
+
+        if (argument instanceof ApertaArray) {
+            ApertaArray source = (ApertaArray)argument;
+            ApertaTypedArray array = allocate(kind, source.length());
+            for (int i = 0; i < source.length(); i++) {
+                array.write(i, number(source.get(i)));
+            }
+            return array;
+        }
+
+        throw new Error(kind + " takes a length or an array.");
+    }
+
+    private static ApertaTypedArray allocate(String kind, int length) {
+        switch (kind) {
+            case "Float64Array": return new Float64(length);
+            case "Int32Array": return new Int32(length);
+            default: return new Bytes(length);
+        }
+    }
+
+    private static double number(Object value) {
+        if (!(value instanceof Double)) throw new Error("Typed arrays can only hold numbers.");
+        return (Double)value;
+    }
+
+    private static int position(Object value, int limit, String what) {
+        double number = number(value);
+        if (number < 0 || number > limit || number != Math.floor(number)) {
+            throw new Error(what + " is out of bounds.");
+        }
+        return (int)number;
+    }
+
+    /**
+     * Looks up one of the array's properties, length or one of the bulk methods.
+     * @param name - Name of the property.
+     * @return - The property's value.
+     */
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)length;
+            case "fill":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        fill(number(arguments.get(0)));
+                        return ApertaTypedArray.this;
+                    }
+                };
+            case "copy":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (!(arguments.get(0) instanceof ApertaTypedArray)) {
+                            throw new Error("Can only copy from another typed array.");
+                        }
+                        ApertaTypedArray source = (ApertaTypedArray)arguments.get(0);
+                        int index = position(arguments.get(1), length, "Copy index");
+                        if (source.length > length - index) throw new Error("Copy source doesn't fit.");
+                        copyFrom(source, index);
+                        return ApertaTypedArray.this;
+                    }
+                };
+            case "slice":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        int start = position(arguments.get(0), length, "Slice start");
+                        int end = position(arguments.get(1), length, "Slice end");
+                        if (end < start) throw new Error("Slice end is before its start.");
+                        return view(start, end - start);
+                    }
+                };
+            case "sum":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return sum();
+                    }
+                };
+            case "min":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return length == 0 ? null : min();
+                    }
+                };
+            case "max":
+                return new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return length == 0 ? null : max();
+                    }
+                };
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+}
@@ -0,0 +1,658 @@
+package com.apertasoftware.apertalang;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps parsed scripts on disk in a binary format, so running the same file again can skip the Scanner and Parser.
+ * Entries are named after the SHA-256 of the file's bytes, an edited file just misses the cache and gets parsed again.
+ * Only the parser's output is kept, the Optimizer and Resolver still run on every load.
+ */
+final class AstCache {
+    static final boolean ENABLED = !"false".equals(System.getProperty("apertalang.cache"));
+    static final Path DIRECTORY = Paths.get(System.getProperty("apertalang.cache.dir",
+            System.getProperty("user.home") + File.separator + ".apertalang" + File.separator + "cache"));
+
+    private static final int MAGIC = 0x41505443;
+    // Bump whenever the AST or this format changes, older entries are then ignored and overwritten.
+    private static final int VERSION = 1;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private AstCache() {}
+
+    /**
+     * Reads and parses a script, from the cache if an entry for the exact same bytes exists.
+     * @param path - The script to load.
+     * @return - The parsed statements, not yet optimized or resolved.
+     * @throws IOException - If the script itself can't be read, problems with the cache are only reported with --verbose.
+     */
+    static List<Stmt> load(String path) throws IOException {
+        ByteBuffer bytes = map(Paths.get(path));
+        return load(path, bytes, ENABLED ? hash(bytes) : null);
+    }
+
+    /**
+     * Parses a script that was already read and hashed, for callers that need the hash themselves.
+     * @param name - Name of the script, used in --verbose messages.
+     * @param bytes - The script's bytes, from map.
+     * @param hash - The hash of the bytes, from hash.
+     * @return - The parsed statements, not yet optimized or resolved.
+     */
+    static List<Stmt> load(String name, ByteBuffer bytes, String hash) {
+        if (!ENABLED) return new Parser(new Scanner(decode(bytes)).scanTokens()).parse();
+
+        Path entry = entry(hash);
+        if (Files.isRegularFile(entry)) {
+            try {
+                List<Stmt> statements = read(entry);
+                ApertaLang.verbose("Loaded " + name + " from the AST cache.");
+                return statements;
+            } catch (IOException | RuntimeException e) {
+                ApertaLang.verbose("Ignoring unreadable AST cache entry " + entry + ": " + e);
+            }
+        }
+
+        Scanner scanner = new Scanner(decode(bytes));
+        Parser parser = new Parser(scanner.scanTokens());
+        List<Stmt> statements = parser.parse();
+
+        // Only cache files that parsed cleanly, so the errors get reported again next time.
+        if (!scanner.hadError && !parser.hadError) store(entry, statements);
+        return statements;
+    }
+
+    /**
+     * Maps a file into memory, the buffer stays valid after the file is closed.
+     */
+    static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Where the entry for a script goes. The hash only covers the raw bytes, so the charset they're decoded with is part of the name too,
+     * a script run under another default charset has different string literals. So is the format version, old entries are just never looked at.
+     */
+    private static Path entry(String hash) {
+        return DIRECTORY.resolve(hash + "-" + Charset.defaultCharset().name() + "-v" + VERSION + ".aptc");
+    }
+
+    /**
+     * Turns a file's bytes into something the Scanner can read. Most scripts are plain ASCII, those are read straight out of the mapped bytes
+     * one char at a time instead of being decoded into a copy twice their size, anything else is decoded with the default charset.
+     */
+    private static CharSequence decode(ByteBuffer bytes) {
+        if (ASCII_COMPATIBLE && isAscii(bytes)) return new AsciiSource(bytes);
+        return Charset.defaultCharset().decode(bytes.duplicate());
+    }
+
+    // Whether the default charset decodes every ASCII byte to the same char, true for UTF-8, Latin-1 and the usual code pages.
+    private static final boolean ASCII_COMPATIBLE = asciiCompatible(Charset.defaultCharset());
+
+    private static boolean asciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) ascii[i] = (byte)i;
+        String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) return false;
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAscii(ByteBuffer bytes) {
+        for (int i = bytes.position(); i < bytes.limit(); i++) {
+            if (bytes.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A CharSequence over bytes that are all ASCII, every byte is one char.
+     */
+    private static final class AsciiSource implements CharSequence {
+        private final ByteBuffer bytes;
+        private final int start;
+        private final int length;
+
+        AsciiSource(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.start = bytes.position();
+            this.length = bytes.remaining();
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char)bytes.get(start + index);
+        }
+
+        /**
+         * The Scanner only takes subsequences to turn them into Strings straight away, so this makes the String.
+         */
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            char[] chars = new char[to - from];
+            for (int i = 0; i < chars.length; i++) chars[i] = (char)bytes.get(start + from + i);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+    }
+
+    /**
+     * The SHA-256 of some bytes as a hex string, used as the name of the cache entry.
+     */
+    static String hash(ByteBuffer bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(bytes.duplicate());
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void store(Path entry, List<Stmt> statements) {
+        Path temp = null;
+        try {
+            Files.createDirectories(DIRECTORY);
+            // Write to a temporary file first, so another process never sees half an entry.
+            temp = Files.createTempFile(DIRECTORY, "entry", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                new Writer(out).statements(statements);
+            }
+
+            try {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            ApertaLang.verbose("Couldn't write AST cache entry " + entry + ": " + e);
+            try {
+                if (temp != null) Files.deleteIfExists(temp);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static List<Stmt> read(Path entry) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an AST cache entry.");
+            if (in.readInt() != VERSION) throw new IOException("AST cache entry is from another version.");
+            return new Reader(in).statements();
+        }
+    }
+
+    private static final int NULL = 0;
+    private static final int DOUBLE = 1;
+    private static final int STRING = 2;
+    private static final int BOOLEAN = 3;
+
+    /**
+     * Writes nodes as a tag byte followed by their fields, strings are written once and referred to by index after that.
+     */
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void statements(List<? extends Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) statement(statement);
+        }
+
+        private void statement(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(0);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void expressions(List<Expr> expressions) {
+            writeInt(expressions.size());
+            for (Expr expression : expressions) expression(expression);
+        }
+
+        private void expression(Expr expr) {
+            if (expr == null) {
+                writeByte(0);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void tokens(List<Token> tokens) {
+            writeInt(tokens.size());
+            for (Token token : tokens) token(token);
+        }
+
+        private void token(Token token) {
+            if (token == null) {
+                writeByte(-1);
+                return;
+            }
+            writeByte(token.type.ordinal());
+            string(token.lexeme);
+            value(token.literal);
+            writeInt(token.line);
+            writeInt(token.column);
+        }
+
+        private void value(Object value) {
+            if (value == null) {
+                writeByte(NULL);
+            } else if (value instanceof Double) {
+                writeByte(DOUBLE);
+                try {
+                    out.writeDouble((Double)value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (value instanceof String) {
+                writeByte(STRING);
+                string((String)value);
+            } else if (value instanceof Boolean) {
+                writeByte(BOOLEAN);
+                writeByte((Boolean)value ? 1 : 0);
+            } else {
+                throw new UncheckedIOException(new IOException("Can't cache a " + value.getClass().getSimpleName() + " literal."));
+            }
+        }
+
+        private void string(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+
+            // A new string gets the next index, followed by its UTF-8 bytes.
+            writeInt(strings.size());
+            strings.put(string, strings.size());
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitArrayExpr(Expr.Array expr) {
+            writeByte(1);
+            expressions(expr.objects);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(2);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(3);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(4);
+            expression(expr.callee);
+            token(expr.paren);
+            expressions(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeByte(5);
+            expression(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(6);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            writeByte(7);
+            expression(expr.object);
+            token(expr.bracket);
+            expression(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr) {
+            writeByte(8);
+            expression(expr.object);
+            token(expr.bracket);
+            expression(expr.index);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(9);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(10);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(11);
+            expression(expr.object);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeByte(12);
+            token(expr.keyword);
+            token(expr.method);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeByte(13);
+            token(expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(14);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitLambdaExpr(Expr.Lambda expr) {
+            writeByte(15);
+            tokens(expr.parameters);
+            statements(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(16);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(1);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeByte(2);
+            token(stmt.name);
+            expression(stmt.superclass);
+            statements(stmt.methods);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(3);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(4);
+            token(stmt.name);
+            token(stmt.returnType);
+            tokens(stmt.parameters);
+            statements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(5);
+            expression(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPreprocStmt(Stmt.Preproc stmt) {
+            writeByte(6);
+            token(stmt.type);
+            token(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(7);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(8);
+            token(stmt.keyword);
+            expression(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(9);
+            token(stmt.name);
+            expression(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(10);
+            expression(stmt.condition);
+            statement(stmt.body);
+            return null;
+        }
+    }
+
+    /**
+     * Reads back what the Writer wrote, tags match the order the Writer's visit methods use.
+     */
+    private static final class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final SymbolTable symbols = new SymbolTable();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> statements() throws IOException {
+            int size = in.readInt();
+            List<Stmt> statements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) statements.add(statement());
+            return statements;
+        }
+
+        private List<Stmt.Function> functions() throws IOException {
+            int size = in.readInt();
+            List<Stmt.Function> functions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) functions.add((Stmt.Function)statement());
+            return functions;
+        }
+
+        private List<Expr> expressions() throws IOException {
+            int size = in.readInt();
+            List<Expr> expressions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) expressions.add(expression());
+            return expressions;
+        }
+
+        private List<Token> tokens() throws IOException {
+            int size = in.readInt();
+            List<Token> tokens = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) tokens.add(token());
+            return tokens;
+        }
+
+        private Token token() throws IOException {
+            byte type = in.readByte();
+            if (type == -1) return null;
+
+            TokenType tokenType = TYPES[type];
+            String lexeme = string();
+            Object literal = value();
+            int line = in.readInt();
+            int column = in.readInt();
+            int symbol = Token.isName(tokenType) ? symbols.id(lexeme) : SymbolTable.NONE;
+            return new Token(tokenType, lexeme, literal, line, column, symbol);
+        }
+
+        private Object value() throws IOException {
+            switch (in.readByte()) {
+                case NULL: return null;
+                case DOUBLE: return in.readDouble();
+                case STRING: return string();
+                case BOOLEAN: return in.readByte() != 0;
+                default: throw new IOException("Unknown literal tag.");
+            }
+        }
+
+        private String string() throws IOException {
+            int index = in.readInt();
+            if (index < strings.size()) return strings.get(index);
+            if (index != strings.size()) throw new IOException("String table out of order.");
+
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private Expr expression() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case 0: return null;
+                case 1: return new Expr.Array(expressions());
+                case 2: return new Expr.Assign(token(), expression());
+                case 3: return new Expr.Binary(expression(), token(), expression());
+                case 4: return new Expr.Call(expression(), token(), expressions());
+                case 5: return new Expr.Get(expression(), token());
+                case 6: return new Expr.Grouping(expression());
+                case 7: return new Expr.Index(expression(), token(), expression());
+                case 8: return new Expr.IndexSet(expression(), token(), expression(), expression());
+                case 9: return new Expr.Literal(value());
+                case 10: return new Expr.Logical(expression(), token(), expression());
+                case 11: return new Expr.Set(expression(), token(), expression());
+                case 12: return new Expr.Super(token(), token());
+                case 13: return new Expr.This(token());
+                case 14: return new Expr.Unary(token(), expression());
+                case 15: return new Expr.Lambda(tokens(), statements());
+                case 16: return new Expr.Variable(token());
+                default: throw new IOException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Stmt statement() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case 0: return null;
+                case 1: return new Stmt.Block(statements());
+                case 2: return new Stmt.Class(token(), expression(), functions());
+                case 3: return new Stmt.Expression(expression());
+                case 4: return new Stmt.Function(token(), token(), tokens(), statements());
+                case 5: return new Stmt.If(expression(), statement(), statement());
+                case 6: return new Stmt.Preproc(token(), token());
+                case 7: return new Stmt.Print(expression());
+                case 8: return new Stmt.Return(token(), expression());
+                case 9: return new Stmt.Var(token(), expression());
+                case 10: return new Stmt.While(expression(), statement());
+                default: throw new IOException("Unknown statement tag " + tag + ".");
+            }
+        }
+    }
+}
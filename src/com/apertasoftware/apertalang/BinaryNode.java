@@ -0,0 +1,187 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * The executable half of an Expr.Binary. Every binary expression starts out uninitialized, looks at the first operands it sees
+ * and rewrites itself into a node specialized for them. When a specialized node gets operands it wasn't made for, it falls back
+ * to the generic node for good so a site can't flip back and forth.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    abstract Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right);
+
+    /**
+     * Picks the node that fits the operands the site just saw.
+     */
+    private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return DoubleAdd.INSTANCE;
+                case MINUS: return DoubleSubtract.INSTANCE;
+                case STAR: return DoubleMultiply.INSTANCE;
+                case SLASH: return DoubleDivide.INSTANCE;
+                case GREATER: return DoubleGreater.INSTANCE;
+                case GREATER_EQUAL: return DoubleGreaterEqual.INSTANCE;
+                case LESS: return DoubleLess.INSTANCE;
+                case LESS_EQUAL: return DoubleLessEqual.INSTANCE;
+                case EQUAL_EQUAL: return DoubleEqual.INSTANCE;
+                case BANG_EQUAL: return DoubleNotEqual.INSTANCE;
+            }
+        } else if (left instanceof String && right instanceof String && operator == TokenType.PLUS) {
+            return StringConcat.INSTANCE;
+        }
+
+        return GENERIC;
+    }
+
+    /**
+     * Called when a specialized node's guess was wrong, the site goes generic from now on.
+     */
+    static Object deoptimize(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+        expr.node = GENERIC;
+        return interpreter.binaryGeneric(expr, left, right);
+    }
+
+    /**
+     * Whether a site has only ever seen two numbers, the JitCompiler only guesses it'll stay that way when this is true.
+     */
+    static boolean sawNumbers(Expr.Binary expr) {
+        BinaryNode node = expr.node;
+        return node != UNINITIALIZED && node != GENERIC && node != StringConcat.INSTANCE;
+    }
+
+    private static class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            BinaryNode node = specialize(expr.operator.type, left, right);
+            expr.node = node;
+            return node.execute(interpreter, expr, left, right);
+        }
+    }
+
+    private static class Generic extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            return interpreter.binaryGeneric(expr, left, right);
+        }
+    }
+
+    private static class DoubleAdd extends BinaryNode {
+        static final DoubleAdd INSTANCE = new DoubleAdd();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleSubtract extends BinaryNode {
+        static final DoubleSubtract INSTANCE = new DoubleSubtract();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left - (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleMultiply extends BinaryNode {
+        static final DoubleMultiply INSTANCE = new DoubleMultiply();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left * (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleDivide extends BinaryNode {
+        static final DoubleDivide INSTANCE = new DoubleDivide();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                if ((double)right == 0.0) throw new RuntimeError(expr.operator, "Can't divide by zero!");
+                return (double)left / (double)right;
+            }
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleGreater extends BinaryNode {
+        static final DoubleGreater INSTANCE = new DoubleGreater();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left > (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleGreaterEqual extends BinaryNode {
+        static final DoubleGreaterEqual INSTANCE = new DoubleGreaterEqual();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleLess extends BinaryNode {
+        static final DoubleLess INSTANCE = new DoubleLess();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left < (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleLessEqual extends BinaryNode {
+        static final DoubleLessEqual INSTANCE = new DoubleLessEqual();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    // Equality goes through the bits like Double.equals does, so NaN and -0 behave the same as the generic path.
+    private static class DoubleEqual extends BinaryNode {
+        static final DoubleEqual INSTANCE = new DoubleEqual();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return Double.doubleToLongBits((double)left) == Double.doubleToLongBits((double)right);
+            }
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleNotEqual extends BinaryNode {
+        static final DoubleNotEqual INSTANCE = new DoubleNotEqual();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return Double.doubleToLongBits((double)left) != Double.doubleToLongBits((double)right);
+            }
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+
+    private static class StringConcat extends BinaryNode {
+        static final StringConcat INSTANCE = new StringConcat();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof String && right instanceof String) return ((String)left).concat((String)right);
+            return deoptimize(interpreter, expr, left, right);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled block of bytecode along with its constant pool and the source line of every byte.
+ */
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte)value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Adds a value to the constant pool, numbers and strings are shared so a loop full of the same literal only uses one slot.
+     * @param value - The constant to add.
+     * @return - The index of the constant in the pool.
+     */
+    int addConstant(Object value) {
+        boolean shareable = value instanceof Double || value instanceof String;
+        if (shareable) {
+            Integer existing = constantIndices.get(value);
+            if (existing != null) return existing;
+        }
+
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (shareable) constantIndices.put(value, index);
+        return index;
+    }
+
+    /**
+     * Trims the code down to size and freezes the constant pool, called once the Compiler is done with the chunk.
+     */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
@@ -0,0 +1,262 @@
+package com.apertasoftware.apertalang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class file writer for the JitCompiler.
+ * Writes version 49 class files, which the JVM verifies by type inference, so no StackMapTable has to be worked out.
+ */
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static class Method {
+        final int access;
+        final int name;
+        final int descriptor;
+        final Code code;
+
+        Method(int access, int name, int descriptor, Code code) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+    }
+
+    /**
+     * A forward or backward branch target inside a Code attribute.
+     */
+    static class Label {
+        private int position = -1;
+        private final List<int[]> fixups = new ArrayList<>();
+    }
+
+    /**
+     * The bytecode of a single method. Keeps a running stack depth so max_stack comes out right.
+     */
+    static class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private byte[] patched = null;
+        private int stack = 0;
+        int maxStack = 0;
+        int maxLocals = 0;
+
+        int position() {
+            return bytes.size();
+        }
+
+        /**
+         * Emits an instruction.
+         * @param opcode - The JVM opcode.
+         * @param stackEffect - How many stack words the instruction pushes (positive) or pops (negative) overall.
+         */
+        void op(int opcode, int stackEffect) {
+            bytes.write(opcode);
+            adjustStack(stackEffect);
+        }
+
+        void u1(int value) {
+            bytes.write(value);
+        }
+
+        void u2(int value) {
+            bytes.write((value >> 8) & 0xff);
+            bytes.write(value & 0xff);
+        }
+
+        void adjustStack(int effect) {
+            stack += effect;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        int stackDepth() {
+            return stack;
+        }
+
+        void setStackDepth(int depth) {
+            stack = depth;
+        }
+
+        void branch(int opcode, int stackEffect, Label target) {
+            int start = position();
+            op(opcode, stackEffect);
+            if (target.position >= 0) {
+                u2(target.position - start);
+            } else {
+                target.fixups.add(new int[] {start, position()});
+                u2(0);
+            }
+        }
+
+        void mark(Label label) {
+            label.position = position();
+        }
+
+        byte[] toByteArray() {
+            if (patched != null) return patched;
+            patched = bytes.toByteArray();
+            return patched;
+        }
+
+        /**
+         * Fills in every forward branch, fails if one of them doesn't fit in a signed 16 bit offset.
+         */
+        boolean resolve(List<Label> labels) {
+            byte[] code = toByteArray();
+            for (Label label : labels) {
+                for (int[] fixup : label.fixups) {
+                    int offset = label.position - fixup[0];
+                    if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) return false;
+                    code[fixup[1]] = (byte)((offset >> 8) & 0xff);
+                    code[fixup[1] + 1] = (byte)(offset & 0xff);
+                }
+            }
+            return code.length <= Short.MAX_VALUE;
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolCache = new HashMap<>();
+    private int poolCount = 1;
+    private final List<Method> methods = new ArrayList<>();
+
+    int utf8(String value) {
+        String key = "U" + value;
+        Integer index = poolCache.get(key);
+        if (index != null) return index;
+
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolCache.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int classRef(String internalName) {
+        String key = "C" + internalName;
+        Integer index = poolCache.get(key);
+        if (index != null) return index;
+
+        int name = utf8(internalName);
+        try {
+            pool.writeByte(7);
+            pool.writeShort(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolCache.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = poolCache.get(key);
+        if (index != null) return index;
+
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        try {
+            pool.writeByte(10);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolCache.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolCache.get(key);
+        if (index != null) return index;
+
+        try {
+            pool.writeByte(6);
+            pool.writeDouble(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolCache.put(key, poolCount);
+        int result = poolCount;
+        // Doubles take up two entries in the constant pool.
+        poolCount += 2;
+        return result;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + descriptor;
+        Integer index = poolCache.get(key);
+        if (index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        try {
+            pool.writeByte(12);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolCache.put(key, poolCount);
+        return poolCount++;
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code) {
+        methods.add(new Method(access, utf8(name), utf8(descriptor), code));
+    }
+
+    byte[] toByteArray(String thisClass, String superClass) {
+        int thisIndex = classRef(thisClass);
+        int superIndex = classRef(superClass);
+        int codeName = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                byte[] code = method.code.toByteArray();
+                out.writeShort(method.access);
+                out.writeShort(method.name);
+                out.writeShort(method.descriptor);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + code.length);
+                out.writeShort(method.code.maxStack);
+                out.writeShort(method.code.maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            }
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
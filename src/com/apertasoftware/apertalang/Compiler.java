@@ -1,6 +1,621 @@
 package com.apertasoftware.apertalang;
 
-// TODO: Make the compiler lol.
-public class Compiler {
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Compiles the statements made by the Parser into bytecode for the VM.
+ * Locals live in numbered stack slots and anything captured by a closure becomes an upvalue, so the VM never looks a local up by name.
+ */
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    private static class Local {
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private final Compiler enclosing;
+    private final VMFunction function;
+    private final List<Local> locals = new ArrayList<>();
+    private final List<Upvalue> upvalues = new ArrayList<>();
+    private int scopeDepth = 0;
+    private int line = 1;
+
+    private Compiler(Compiler enclosing, VMFunction function) {
+        this.enclosing = enclosing;
+        this.function = function;
+        if (enclosing != null) this.line = enclosing.line;
+
+        // Slot zero holds the receiver for methods and the callee itself for everything else.
+        boolean hasReceiver = function.kind == VMFunction.Kind.METHOD || function.kind == VMFunction.Kind.INITIALIZER;
+        locals.add(new Local(hasReceiver ? "this" : "", 0));
+    }
+
+    /**
+     * Compiles a whole script into the function the VM starts with.
+     * @param statements - The statements returned by the Parser.
+     * @return - The compiled script.
+     */
+    static VMFunction compile(List<Stmt> statements) {
+        Compiler compiler = new Compiler(null, new VMFunction(VMFunction.Kind.SCRIPT, "script", null, null));
+        for (Stmt statement : statements) {
+            compiler.compile(statement);
+        }
+        return compiler.endCompiler();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private VMFunction endCompiler() {
+        emitReturn();
+        function.upvalueCount = upvalues.size();
+        function.chunk.finish();
+        return function;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        int nameConstant = makeConstant(stmt.name);
+        declareVariable(stmt.name);
+        emitByte(OpCode.NIL);
+        defineVariable(stmt.name, nameConstant);
+
+        if (stmt.superclass != null) {
+            beginScope();
+            compile(stmt.superclass);
+            addLocal("super");
+            markInitialized();
+            emitBytes(OpCode.GET_LOCAL, locals.size() - 1);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+
+        for (Stmt.Function method : stmt.methods) {
+            VMFunction.Kind kind = method.name.lexeme.equals("init") ? VMFunction.Kind.INITIALIZER : VMFunction.Kind.METHOD;
+            function(method, kind);
+        }
+
+        line = stmt.name.line;
+        if (stmt.methods.size() > 255) {
+            ApertaLang.error(stmt.name, "Cannot have more than 255 methods in one class.");
+        }
+        emitByte(OpCode.CLASS);
+        emitShort(nameConstant);
+        emitByte(stmt.methods.size());
+        setVariable(stmt.name);
+        emitByte(OpCode.POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitByte(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        int nameConstant = makeConstant(stmt.name);
+        declareVariable(stmt.name);
+        // Mark it straight away so the function can call itself.
+        markInitialized();
+        function(stmt, VMFunction.Kind.FUNCTION);
+        defineVariable(stmt.name, nameConstant);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emitByte(OpCode.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPreprocStmt(Stmt.Preproc stmt) {
+        line = stmt.type.line;
+        emitByte(OpCode.PREPROC);
+        emitShort(makeConstant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitByte(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else if (function.kind == VMFunction.Kind.LAMBDA) {
+            // Returning from a lambda does nothing, but the value still has to be evaluated.
+            compile(stmt.value);
+            emitByte(OpCode.POP);
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emitByte(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        int nameConstant = makeConstant(stmt.name);
+        declareVariable(stmt.name);
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+        defineVariable(stmt.name, nameConstant);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = function.chunk.count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emitByte(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        if (expr.constant != null) {
+            emitByte(OpCode.ARRAY_CONSTANT);
+            emitShort(makeConstant(expr.constant));
+            return null;
+        }
+
+        for (Expr val : expr.objects) {
+            compile(val);
+        }
+        if (expr.objects.size() > 65535) {
+            ApertaLang.error(line, "Too many elements in array literal.");
+        }
+        emitByte(OpCode.ARRAY);
+        emitShort(expr.objects.size());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL: emitByte(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emitByte(OpCode.EQUAL); break;
+            case GREATER: emitByte(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitByte(OpCode.GREATER_EQUAL); break;
+            case LESS: emitByte(OpCode.LESS); break;
+            case LESS_EQUAL: emitByte(OpCode.LESS_EQUAL); break;
+            case MINUS: emitByte(OpCode.SUBTRACT); break;
+            case PLUS: emitByte(OpCode.ADD); break;
+            case SLASH: emitByte(OpCode.DIVIDE); break;
+            case STAR: emitByte(OpCode.MULTIPLY); break;
+            default:
+                // The interpreter evaluates both sides and gives back nil for anything else.
+                emitByte(OpCode.POP);
+                emitByte(OpCode.POP);
+                emitByte(OpCode.NIL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // obj.method(args) gets its own instruction so the VM doesn't have to bind the method first.
+            Expr.Get get = (Expr.Get)expr.callee;
+            compile(get.object);
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+            line = get.name.line;
+            emitByte(OpCode.INVOKE);
+            emitShort(makeConstant(get.name));
+            emitByte(expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emitBytes(OpCode.CALL, expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitByte(OpCode.GET_PROPERTY);
+        emitShort(makeConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket.line;
+        emitByte(OpCode.GET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        line = expr.bracket.line;
+        emitByte(OpCode.SET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emitByte(OpCode.NIL);
+        } else if (expr.value == Boolean.TRUE) {
+            emitByte(OpCode.TRUE);
+        } else if (expr.value == Boolean.FALSE) {
+            emitByte(OpCode.FALSE);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitByte(OpCode.SET_PROPERTY);
+        emitShort(makeConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        getVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        getVariable(expr.keyword);
+        emitByte(OpCode.GET_SUPER);
+        emitShort(makeConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        getVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case BANG: emitByte(OpCode.NOT); break;
+            case MINUS: emitByte(OpCode.NEGATE); break;
+            default:
+                emitByte(OpCode.POP);
+                emitByte(OpCode.NIL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        Compiler compiler = new Compiler(this, new VMFunction(VMFunction.Kind.LAMBDA, "lambda", null, expr));
+        compiler.compileBody(expr.parameters, expr.body);
+        emitClosure(compiler);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        getVariable(expr.name);
+        return null;
+    }
+
+    private void function(Stmt.Function declaration, VMFunction.Kind kind) {
+        Compiler compiler = new Compiler(this, new VMFunction(kind, declaration.name.lexeme, declaration, null));
+        compiler.line = declaration.name.line;
+        compiler.compileBody(declaration.parameters, declaration.body);
+        emitClosure(compiler);
+    }
+
+    private void compileBody(List<Token> parameters, List<Stmt> body) {
+        beginScope();
+        for (Token parameter : parameters) {
+            function.arity++;
+            declareVariable(parameter);
+            markInitialized();
+        }
+        for (Stmt statement : body) {
+            compile(statement);
+        }
+    }
+
+    private void emitClosure(Compiler compiler) {
+        VMFunction compiled = compiler.endCompiler();
+        emitByte(OpCode.CLOSURE);
+        emitShort(makeConstant(compiled));
+        for (Upvalue upvalue : compiler.upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitByte(upvalue.index);
+        }
+    }
+
+    private void beginScope() {
+        scopeDepth++;
+    }
+
+    private void endScope() {
+        scopeDepth--;
+
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emitByte(OpCode.CLOSE_UPVALUE);
+            } else {
+                emitByte(OpCode.POP);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void declareVariable(Token name) {
+        if (scopeDepth == 0) return;
+        addLocal(name.lexeme);
+    }
+
+    private void addLocal(String name) {
+        if (locals.size() == MAX_LOCALS) {
+            ApertaLang.error(line, "Too many local variables in function.");
+            return;
+        }
+        // A depth of -1 marks the local as declared but not initialized yet.
+        locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized() {
+        if (scopeDepth == 0) return;
+        locals.get(locals.size() - 1).depth = scopeDepth;
+    }
+
+    private void defineVariable(Token name, int nameConstant) {
+        if (scopeDepth > 0) {
+            // The value is already sitting in the local's slot.
+            markInitialized();
+            return;
+        }
+
+        emitByte(OpCode.DEFINE_GLOBAL);
+        emitShort(nameConstant);
+    }
+
+    private void getVariable(Token name) {
+        int slot = resolveLocal(name);
+        if (slot != -1) {
+            emitBytes(OpCode.GET_LOCAL, slot);
+        } else if ((slot = resolveUpvalue(name)) != -1) {
+            emitBytes(OpCode.GET_UPVALUE, slot);
+        } else {
+            emitByte(OpCode.GET_GLOBAL);
+            emitShort(makeConstant(name));
+        }
+    }
+
+    private void setVariable(Token name) {
+        int slot = resolveLocal(name);
+        if (slot != -1) {
+            emitBytes(OpCode.SET_LOCAL, slot);
+        } else if ((slot = resolveUpvalue(name)) != -1) {
+            emitBytes(OpCode.SET_UPVALUE, slot);
+        } else {
+            emitByte(OpCode.SET_GLOBAL);
+            emitShort(makeConstant(name));
+        }
+    }
+
+    private int resolveLocal(Token name) {
+        for (int i = locals.size() - 1; i >= 0; i--) {
+            if (locals.get(i).name.equals(name.lexeme)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int resolveUpvalue(Token name) {
+        if (enclosing == null) return -1;
+
+        int local = enclosing.resolveLocal(name);
+        if (local != -1) {
+            enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(local, true);
+        }
+
+        int upvalue = enclosing.resolveUpvalue(name);
+        if (upvalue != -1) {
+            return addUpvalue(upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(int index, boolean isLocal) {
+        for (int i = 0; i < upvalues.size(); i++) {
+            Upvalue upvalue = upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        if (upvalues.size() == MAX_UPVALUES) {
+            ApertaLang.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+
+        upvalues.add(new Upvalue(index, isLocal));
+        return upvalues.size() - 1;
+    }
+
+    private int makeConstant(Object value) {
+        int constant = function.chunk.addConstant(value);
+        if (constant > 65535) {
+            ApertaLang.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private void emitConstant(Object value) {
+        emitByte(OpCode.CONSTANT);
+        emitShort(makeConstant(value));
+    }
+
+    private void emitReturn() {
+        if (function.kind == VMFunction.Kind.INITIALIZER) {
+            emitBytes(OpCode.GET_LOCAL, 0);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+        emitByte(OpCode.RETURN);
+    }
+
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitByte(0xff);
+        emitByte(0xff);
+        return function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = function.chunk.count - offset - 2;
+        if (jump > 65535) {
+            ApertaLang.error(line, "Too much code to jump over.");
+        }
+
+        function.chunk.code[offset] = (byte)((jump >> 8) & 0xff);
+        function.chunk.code[offset + 1] = (byte)(jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OpCode.LOOP);
+
+        int offset = function.chunk.count - loopStart + 2;
+        if (offset > 65535) ApertaLang.error(line, "Loop body too large.");
+
+        emitShort(offset);
+    }
+
+    private void emitByte(int value) {
+        function.chunk.write(value, line);
+    }
+
+    private void emitBytes(int first, int second) {
+        emitByte(first);
+        emitByte(second);
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
 }
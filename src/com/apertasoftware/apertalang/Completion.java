@@ -0,0 +1,13 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * How a statement finished running, so a return can unwind to its function without throwing.
+ * The value of a return is kept in Interpreter.returnValue.
+ */
+enum Completion {
+    NORMAL,
+    RETURN,
+    // Not used by the language yet, loops already know what to do with them.
+    BREAK,
+    CONTINUE
+}
@@ -1,25 +1,56 @@
 package com.apertasoftware.apertalang;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class that binds a variable name to it's value as well as the scopes they were created in.
+ * Only the global scope keeps names around, every other scope is a plain array indexed by the slot the Resolver gave each variable.
+ * The global scope is shared by every thread running the program, so it's a concurrent map, which can't hold null so nil is stored as NIL.
  */
 class Environment {
+    private static final Object NIL = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
+    private Object[] slots;
+    private int count = 0;
 
     Environment() {
         enclosing = null;
+        values = new ConcurrentHashMap<>();
+        slots = null;
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, 4);
+    }
+
+    Environment(Environment enclosing, int capacity) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[capacity];
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    /**
+     * Declares a variable in this scope. Locals are handed out slots in the same order the Resolver declared them.
+     * @param name - Name of the variable, only kept for globals.
+     * @param value - The starting value.
+     * @return - The slot the variable went into, or -1 for globals.
+     */
+    int define(String name, Object value) {
+        if (values != null) {
+            values.put(name, value == null ? NIL : value);
+            return -1;
+        }
+
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        slots[count] = value;
+        return count++;
     }
 
     Environment ancestor(int distance) {
@@ -31,32 +62,42 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        Object value = values.get(name.lexeme);
+        if (value != null) {
+            return value == NIL ? null : value;
         }
 
-        if (enclosing != null) return enclosing.get(name);
-
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    /**
+     * Looks up a global without failing when it isn't defined.
+     * @param name - Name of the global.
+     * @return - Its value, or null if there isn't one.
+     */
+    Object getIfDefined(String name) {
+        Object value = values.get(name);
+        return value == NIL ? null : value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    /**
+     * The names of every global, only works on the global scope.
+     */
+    Set<String> names() {
+        return values.keySet();
+    }
+
+    void assign(Token name, Object value) {
+        if (values.replace(name.lexeme, value == null ? NIL : value) != null) {
             return;
         }
 
@@ -0,0 +1,8 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * Receives the errors of a script. The command line prints them, an ApertaEngine collects them into the result.
+ */
+public interface ErrorReporter {
+    void report(ApertaError error);
+}
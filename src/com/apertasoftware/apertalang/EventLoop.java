@@ -0,0 +1,104 @@
+package com.apertasoftware.apertalang;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * The event loop of one Interpreter. Async builtins hand their blocking work to worker threads,
+ * and when the work is done the callback is posted back here, so every callback runs on the thread that owns the loop, one at a time.
+ * Only the owning thread submits and runs, the workers only ever post to the queue.
+ * Workers are virtual threads when the JVM has them, and at most apertalang.io.concurrency pieces of work run at once across every loop.
+ */
+class EventLoop {
+    static final int CONCURRENCY = Math.max(1, Integer.getInteger("apertalang.io.concurrency", 256));
+
+    private static final ExecutorService workers = createWorkers();
+    // Taken by submit and given back when the work is done, a script firing off more than that much work waits for some of it to finish.
+    private static final Semaphore slots = new Semaphore(CONCURRENCY);
+
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private volatile Thread waiting = null;
+    private int pending = 0;
+
+    /**
+     * The blocking part of some work, run on a worker.
+     */
+    interface Work {
+        /**
+         * @return - What to run on the loop afterwards, usually calling the script's callback.
+         */
+        Runnable run() throws Exception;
+    }
+
+    /**
+     * Runs some work off the main thread.
+     * @param work - Does the blocking part and returns what to run on the loop afterwards.
+     * @param failed - Makes what to run on the loop instead when the work throws, given the message of what it threw.
+     *                 Usually hands it to the script's callback as its error argument.
+     */
+    void submit(Work work, Function<String, Runnable> failed) {
+        slots.acquireUninterruptibly();
+        pending++;
+        workers.execute(() -> {
+            Runnable completion;
+            try {
+                completion = work.run();
+            } catch (Exception | Error e) {
+                completion = failed.apply(e.getMessage() != null ? e.getMessage() : e.toString());
+            } finally {
+                slots.release();
+            }
+            post(completion);
+        });
+    }
+
+    /**
+     * A virtual thread per task when running on a JVM that has them, otherwise a pool of daemon threads as big as the concurrency limit.
+     * Looked up reflectively since the language itself still builds for Java 8.
+     */
+    private static ExecutorService createWorkers() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Daemon threads, so work nobody waits for anymore doesn't keep the process alive.
+            return Executors.newFixedThreadPool(Math.min(CONCURRENCY, 4 * Runtime.getRuntime().availableProcessors()), work -> {
+                Thread thread = new Thread(work, "apertalang-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void post(Runnable completion) {
+        completions.add(completion);
+        Thread thread = waiting;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    /**
+     * Runs completions in the order they finished until no submitted work is left, waiting for the workers when the queue is empty.
+     * A callback that throws stops the loop, anything still pending is left for the next run.
+     */
+    void run() {
+        waiting = Thread.currentThread();
+        try {
+            while (pending > 0) {
+                Runnable completion = completions.poll();
+                if (completion == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                pending--;
+                completion.run();
+            }
+        } finally {
+            waiting = null;
+        }
+    }
+}
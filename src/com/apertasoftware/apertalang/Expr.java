@@ -10,6 +10,8 @@ abstract class Expr {
         R visitCallExpr(Call expr);
         R visitGetExpr(Get expr);
         R visitGroupingExpr(Grouping expr);
+        R visitIndexExpr(Index expr);
+        R visitIndexSetExpr(IndexSet expr);
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitSetExpr(Set expr);
@@ -29,6 +31,8 @@ abstract class Expr {
         }
 
         final List<Expr> objects;
+
+        Object[] constant = null;
     }
     static class Assign extends Expr {
         Assign(Token name, Expr value) {
@@ -42,6 +46,9 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+
+        int depth = -1;
+        int slot = -1;
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
@@ -57,6 +64,8 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+
+        BinaryNode node = BinaryNode.UNINITIALIZED;
     }
     static class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -72,6 +81,8 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+
+        boolean tailCall = false;
     }
     static class Get extends Expr {
         Get(Expr object, Token name) {
@@ -85,6 +96,8 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+
+        Shape.CacheEntry cache = null;
     }
     static class Grouping extends Expr {
         Grouping(Expr expression) {
@@ -97,6 +110,38 @@ abstract class Expr {
 
         final Expr expression;
     }
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+    static class IndexSet extends Expr {
+        IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+    }
     static class Literal extends Expr {
         Literal(Object value) {
             this.value = value;
@@ -137,6 +182,8 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+
+        Shape.CacheEntry cache = null;
     }
     static class Super extends Expr {
         Super(Token keyword, Token method) {
@@ -150,6 +197,8 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+
+        int depth = -1;
     }
     static class This extends Expr {
         This(Token keyword) {
@@ -161,6 +210,8 @@ abstract class Expr {
         }
 
         final Token keyword;
+
+        int depth = -1;
     }
     static class Unary extends Expr {
         Unary(Token operator, Expr right) {
@@ -174,6 +225,8 @@ abstract class Expr {
 
         final Token operator;
         final Expr right;
+
+        UnaryNode node = UnaryNode.UNINITIALIZED;
     }
     static class Lambda extends Expr {
         Lambda(List<Token> parameters, List<Stmt> body) {
@@ -198,6 +251,9 @@ abstract class Expr {
         }
 
         final Token name;
+
+        int depth = -1;
+        int slot = -1;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
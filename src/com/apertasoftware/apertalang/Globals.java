@@ -3,6 +3,9 @@ package com.apertasoftware.apertalang;
 import jdk.nashorn.internal.objects.NativeFloat32Array;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.util.*;
 
@@ -17,6 +20,7 @@ public class Globals {
         new GlobalsMath(interpreter);
         new GlobalsDate(interpreter);
         new GlobalsIO(interpreter);
+        new GlobalsTypedArrays(interpreter);
     }
 
     private class GlobalsMath {
@@ -475,14 +479,14 @@ public class Globals {
             });
 
             ApertaInstance mathInst = new ApertaInstance(new ApertaClass("Math", null, new HashMap<>(), math));
-            mathInst.fields.put("E", E);
-            mathInst.fields.put("LN2", LN2);
-            mathInst.fields.put("LN10", LN10);
-            mathInst.fields.put("LOG2E", LOG2E);
-            mathInst.fields.put("LOG10E", LOG10E);
-            mathInst.fields.put("PI", PI);
-            mathInst.fields.put("SQRT1_2", SQRT1_2);
-            mathInst.fields.put("SQRT2", SQRT2);
+            mathInst.set("E", E);
+            mathInst.set("LN2", LN2);
+            mathInst.set("LN10", LN10);
+            mathInst.set("LOG2E", LOG2E);
+            mathInst.set("LOG10E", LOG10E);
+            mathInst.set("PI", PI);
+            mathInst.set("SQRT1_2", SQRT1_2);
+            mathInst.set("SQRT2", SQRT2);
 
             interpreter.globals.define("Math", mathInst);
 
@@ -514,25 +518,17 @@ public class Globals {
 
                 @Override
                 public Object call(Interpreter interpreter, List<Object> arguments) {
-                    new Thread(() -> {
-                        if (!(arguments.get(1) instanceof ApertaCallable)) {
-                            throw new Error("Argument 3 must be a Function or Lambda.");
-                        }
-                        try {
-                            String line;
-                            StringBuilder returnStr = new StringBuilder();
-                            BufferedReader reader = new BufferedReader(new FileReader((String)arguments.get(0)));
-                            while((line = reader.readLine()) != null) {
-                                returnStr.append(line + "\n");
-                            }
-                            reader.close();
-                            ApertaCallable func = (ApertaCallable) arguments.get(1);
-                            func.call(interpreter, Arrays.asList((Object) null,(Object) returnStr.toString().substring(0, returnStr.length()-1)));
-                        } catch (IOException e) {
-                            ApertaCallable func = (ApertaCallable) arguments.get(1);
-                            func.call(interpreter, Arrays.asList((Object)e.getMessage(),(Object) ""));
-                        }
-                    }).start();
+                    if (!(arguments.get(1) instanceof ApertaCallable)) {
+                        throw new Error("Argument 2 must be a Function or Lambda.");
+                    }
+                    ApertaCallable func = (ApertaCallable) arguments.get(1);
+                    String path = path(arguments.get(0));
+
+                    // The file is read on a worker, the callback runs later on this interpreter's event loop.
+                    interpreter.events.submit(() -> {
+                        String contents = readFile(path);
+                        return () -> func.call(interpreter, Arrays.asList((Object) null,(Object) contents));
+                    }, error -> () -> func.call(interpreter, Arrays.asList((Object) error,(Object) "")));
                     return null;
                 }
             });
@@ -546,14 +542,139 @@ public class Globals {
                 @Override
                 public Object call(Interpreter interpreter, List<Object> arguments) {
                     try {
+                        return readFile(path(arguments.get(0)));
+                    } catch (IOException e) {
+                        throw new Error(e.getMessage());
+                    }
+                }
+            });
+
+            io.put("lines", new ApertaCallable() {
+                @Override
+                public int arity() {
+                    return 2;
+                }
+
+                /**
+                 * Calls the callable with every line of the file without loading the whole file, stopping early if it returns false.
+                 * @return - How many lines were read.
+                 */
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    if (!(arguments.get(1) instanceof ApertaCallable)) {
+                        throw new Error("Argument 2 must be a Function or Lambda.");
+                    }
+                    ApertaCallable func = (ApertaCallable) arguments.get(1);
+
+                    double count = 0;
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path(arguments.get(0))), Charset.defaultCharset()))) {
                         String line;
-                        StringBuilder returnStr = new StringBuilder();
-                        BufferedReader reader = new BufferedReader(new FileReader((String)arguments.get(0)));
-                        while((line = reader.readLine()) != null) {
-                            returnStr.append(line + "\n");
+                        while ((line = reader.readLine()) != null) {
+                            count++;
+                            if (Boolean.FALSE.equals(func.call(interpreter, Arrays.asList((Object) line)))) break;
                         }
-                        reader.close();
-                        return returnStr.toString().substring(0, returnStr.length()-1);
+                    } catch (IOException e) {
+                        throw new Error(e.getMessage());
+                    }
+                    return count;
+                }
+            });
+
+            io.put("chunks", new ApertaCallable() {
+                @Override
+                public int arity() {
+                    return 3;
+                }
+
+                /**
+                 * Calls the callable with the file split into strings of at most size characters, read into the same buffer every time.
+                 * Stops early if the callable returns false.
+                 * @return - How many chunks were read.
+                 */
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    if (!(arguments.get(1) instanceof Double) || (Double)arguments.get(1) < 1) {
+                        throw new Error("Chunk size must be a positive number.");
+                    }
+                    if (!(arguments.get(2) instanceof ApertaCallable)) {
+                        throw new Error("Argument 3 must be a Function or Lambda.");
+                    }
+                    ApertaCallable func = (ApertaCallable) arguments.get(2);
+
+                    double count = 0;
+                    try (FileInputStream stream = new FileInputStream(path(arguments.get(0)));
+                         Reader reader = new InputStreamReader(stream, Charset.defaultCharset())) {
+                        // A file never decodes to more chars than it has bytes, so a chunk size bigger than the file only allocates what the file needs.
+                        long size = Math.min((long)(double)(Double)arguments.get(1), stream.getChannel().size());
+                        char[] buffer = new char[(int)Math.max(1, Math.min(size, Integer.MAX_VALUE - 8))];
+                        int read;
+                        while ((read = fill(reader, buffer)) > 0) {
+                            count++;
+                            if (Boolean.FALSE.equals(func.call(interpreter, Arrays.asList((Object) new String(buffer, 0, read))))) break;
+                        }
+                    } catch (IOException e) {
+                        throw new Error(e.getMessage());
+                    }
+                    return count;
+                }
+            });
+
+            io.put("lineReader", new ApertaCallable() {
+                @Override
+                public int arity() {
+                    return 1;
+                }
+
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    try {
+                        return new ApertaLineReader(path(arguments.get(0)), interpreter.files);
+                    } catch (IOException e) {
+                        throw new Error(e.getMessage());
+                    }
+                }
+            });
+
+            io.put("map", new ApertaCallable() {
+                @Override
+                public int arity() {
+                    return 2;
+                }
+
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    if (!(arguments.get(1) instanceof String)) throw new Error("Map mode must be \"r\", \"rw\" or \"c\".");
+                    try {
+                        return ApertaBuffer.map(path(arguments.get(0)), (String)arguments.get(1));
+                    } catch (IOException e) {
+                        throw new Error(e.getMessage());
+                    }
+                }
+            });
+
+            io.put("allocate", new ApertaCallable() {
+                @Override
+                public int arity() {
+                    return 1;
+                }
+
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    return ApertaBuffer.allocate(arguments.get(0));
+                }
+            });
+
+            io.put("open", new ApertaCallable() {
+                @Override
+                public int arity() {
+                    return 2;
+                }
+
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    if (!(arguments.get(1) instanceof String)) throw new Error("Open mode must be \"w\", \"a\" or \"r+\".");
+                    try {
+                        return new ApertaFile(path(arguments.get(0)), (String)arguments.get(1), interpreter.files);
                     } catch (IOException e) {
                         throw new Error(e.getMessage());
                     }
@@ -569,9 +690,7 @@ public class Globals {
                 @Override
                 public Object call(Interpreter interpreter, List<Object> arguments) {
                     try {
-                        BufferedWriter writer = new BufferedWriter(new FileWriter((String)arguments.get(0)));
-                        writer.write(interpreter.stringify(arguments.get(1)));
-                        writer.close();
+                        writeFile(path(arguments.get(0)), interpreter.stringify(arguments.get(1)));
                     } catch (IOException e) {
                         return e.getMessage();
                     }
@@ -587,27 +706,75 @@ public class Globals {
 
                 @Override
                 public Object call(Interpreter interpreter, List<Object> arguments) {
-                    new Thread(() -> {
-                        if (!(arguments.get(2) instanceof ApertaCallable)) {
-                            throw new Error("Argument 3 must be a Function or Lambda.");
-                        }
-                        try {
-                            BufferedWriter writer = new BufferedWriter(new FileWriter((String)arguments.get(0)));
-                            writer.write(interpreter.stringify(arguments.get(1)));
-                            writer.close();
-                            ApertaCallable func = (ApertaCallable) arguments.get(2);
-                            func.call(interpreter, Arrays.asList((Object)null));
-                        } catch (IOException e) {
-                            ApertaCallable func = (ApertaCallable) arguments.get(2);
-                            func.call(interpreter, Arrays.asList((Object)e.getMessage()));
-                        }
-                    }).start();
+                    if (!(arguments.get(2) instanceof ApertaCallable)) {
+                        throw new Error("Argument 3 must be a Function or Lambda.");
+                    }
+                    ApertaCallable func = (ApertaCallable) arguments.get(2);
+                    // Stringified now, the value could change before the worker gets to it.
+                    String contents = interpreter.stringify(arguments.get(1));
+                    String path = path(arguments.get(0));
+
+                    interpreter.events.submit(() -> {
+                        writeFile(path, contents);
+                        return () -> func.call(interpreter, Arrays.asList((Object)null));
+                    }, error -> () -> func.call(interpreter, Arrays.asList((Object)error)));
                     return null;
                 }
             });
 
             interpreter.globals.define("IO", new ApertaClass("IO", null, new HashMap<>(), io));
         }
+
+        /**
+         * Checks that a builtin was given a path, on the calling thread so the error points at the call.
+         * @param value - The argument.
+         * @return - The path.
+         */
+        private String path(Object value) {
+            if (!(value instanceof String)) throw new Error("Path must be a string.");
+            return (String)value;
+        }
+
+        /**
+         * Reads a whole file in one go. Like reading it line by line used to, every line break comes out as "\n" and one trailing line break is left off.
+         * @param path - The file to read.
+         * @return - Its contents.
+         */
+        private String readFile(String path) throws IOException {
+            ByteBuffer bytes;
+            try (FileChannel channel = new FileInputStream(path).getChannel()) {
+                // Arrays can't be quite as big as Integer.MAX_VALUE.
+                if (channel.size() > Integer.MAX_VALUE - 8) {
+                    throw new Error("Can't read files bigger than 2GB at once, use IO.lines or IO.chunks.");
+                }
+                bytes = ByteBuffer.allocate((int) channel.size());
+                while (bytes.hasRemaining() && channel.read(bytes) != -1);
+            }
+            String contents = new String(bytes.array(), 0, bytes.position(), Charset.defaultCharset());
+            if (contents.indexOf('\r') != -1) contents = contents.replace("\r\n", "\n").replace('\r', '\n');
+            if (contents.endsWith("\n")) return contents.substring(0, contents.length() - 1);
+            return contents;
+        }
+
+        /**
+         * Reads until the buffer is full or the file ends, so every chunk but the last is exactly the requested size.
+         * @return - How many characters were read, 0 at the end of the file.
+         */
+        private int fill(Reader reader, char[] buffer) throws IOException {
+            int total = 0;
+            int read;
+            while (total < buffer.length && (read = reader.read(buffer, total, buffer.length - total)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+
+        private void writeFile(String path, String contents) throws IOException {
+            ByteBuffer bytes = ByteBuffer.wrap(contents.getBytes(Charset.defaultCharset()));
+            try (FileChannel channel = new FileOutputStream(path).getChannel()) {
+                while (bytes.hasRemaining()) channel.write(bytes);
+            }
+        }
     }
 
     private class GlobalsDate {
@@ -658,4 +825,27 @@ public class Globals {
             return 0;
         }
     }
+
+    private class GlobalsTypedArrays {
+        GlobalsTypedArrays(Interpreter interpreter) {
+            for (String kind : new String[] {"Float64Array", "Int32Array", "ByteArray"}) {
+                interpreter.globals.define(kind, new ApertaCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return ApertaTypedArray.create(kind, arguments.get(0));
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "<native fn " + kind + ">";
+                    }
+                });
+            }
+        }
+    }
 }
@@ -1,25 +1,76 @@
 package com.apertasoftware.apertalang;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The actual interpreter, which as you can see, implements the abstract Expr and Stmt classes.
+ * An Interpreter is also the execution context of one thread: the current scope and the pending return value live here,
+ * while the globals, loaded modules and the resolved program are shared. Use fork to get a context for another thread.
  */
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    final Environment globals;
+    final ModuleRegistry modules;
+    // Where print goes, shared by every fork.
+    final OutputSink out;
+    // Modules the program already ran, a ~reference of one of them does nothing. Shared by every fork.
+    private final Set<ModuleRegistry.Module> executed;
+    // Callbacks of async builtins called from this context, each context runs its own.
+    final EventLoop events = new EventLoop();
+    // Files opened with IO.open or IO.lineReader in this context that haven't been closed yet.
+    final Set<Closeable> files = Collections.newSetFromMap(new ConcurrentHashMap<Closeable, Boolean>());
+    private Environment environment;
+    // The value of the last return statement, picked up by whoever called the function.
+    Object returnValue = null;
+    // Counts every loop iteration, ApertaFunction uses it to see how much looping a call did.
+    long loopIterations = 0;
 
     Interpreter() {
+        this((ModuleRegistry) null);
+    }
+
+    /**
+     * Makes an interpreter with its own globals that shares already loaded modules with others.
+     * @param modules - The registry to load ~include and ~reference files from, or null for a new one.
+     */
+    Interpreter(ModuleRegistry modules) {
+        this(modules, OutputSink.stdout());
+    }
+
+    /**
+     * Makes an interpreter that prints somewhere other than stdout.
+     * @param modules - The registry to load ~include and ~reference files from, or null for a new one.
+     * @param out - Where print goes.
+     */
+    Interpreter(ModuleRegistry modules, OutputSink out) {
+        this.out = out;
+        this.globals = new Environment();
+        this.environment = globals;
+        this.modules = modules != null ? modules : new ModuleRegistry(this);
+        this.executed = Collections.newSetFromMap(new ConcurrentHashMap<ModuleRegistry.Module, Boolean>());
 
         new Globals(this);
 
     }
 
+    private Interpreter(Interpreter parent) {
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.modules = parent.modules;
+        this.executed = parent.executed;
+        this.out = parent.out;
+    }
+
+    /**
+     * Makes a new execution context for running the same program on another thread, sharing this one's globals and modules.
+     * Functions and values can be passed between the two freely, each context only keeps its own scope and return value.
+     * @return - The new context.
+     */
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
     void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
@@ -30,19 +81,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    @Override
-    public Object visitLiteralExpr(Expr.Literal expr) {
-        if(expr.value instanceof List<?>) {
-            List<Object> arrayValue = new ArrayList<>();
-            for (Expr val : (List<Expr>)expr.value) {
-                arrayValue.add(evaluate(val));
+    /**
+     * Runs the callbacks of async builtins as their work finishes, until nothing is pending anymore.
+     */
+    void runEvents() {
+        try {
+            events.run();
+        } catch (RuntimeError error) {
+            ApertaLang.runtimeError(error);
+        }
+    }
+
+    /**
+     * Closes every file this context opened and the script didn't close, flushing what they still had buffered.
+     */
+    void closeFiles() {
+        for (Closeable file : files) {
+            try {
+                file.close();
+            } catch (IOException | Error e) {
+                // The run is already over, there's nothing left to report it to.
             }
-            return arrayValue;
-        } else {
-            return expr.value;
         }
     }
 
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+        return expr.value;
+    }
+
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
@@ -58,28 +125,42 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
-        Object object = evaluate(expr.object);
-
-        if (object instanceof List<?>) {
-            ((List<Expr>) object).add(((Double)expr.name.literal).intValue(), expr.value);
-            return evaluate(expr.value);
-        }
+        ApertaInstance instance = fieldsOf(evaluate(expr.object), expr);
+        Object value = evaluate(expr.value);
+        instance.set(expr, value);
+        return value;
+    }
 
+    /**
+     * Checks that the object of a set expression can have fields, before its value is evaluated.
+     * @param object - The object being set on.
+     * @param expr - The set expression, used for errors.
+     * @return - The object as an instance.
+     */
+    static ApertaInstance fieldsOf(Object object, Expr.Set expr) {
         if (!(object instanceof ApertaInstance)) {
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
-
-        Object value = evaluate(expr.value);
-        ((ApertaInstance)object).set(expr.name, value);
-        return value;
+        return (ApertaInstance)object;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        ApertaClass superclass = (ApertaClass)environment.getAt(distance, "super");
+        return superMethod(environment, expr.depth, expr);
+    }
 
-        ApertaInstance object = (ApertaInstance)environment.getAt(distance - 1, "this");
+    /**
+     * Looks up the method a super expression refers to. Compiled code keeps its own locals, so it passes the scope to count from.
+     * @param environment - The scope the distance is counted from.
+     * @param distance - How many scopes out 'super' is.
+     * @param expr - The super expression.
+     * @return - The method.
+     */
+    static ApertaFunction superMethod(Environment environment, int distance, Expr.Super expr) {
+        // 'super' and 'this' are always the only variable in their scope, so they both sit in slot 0.
+        ApertaClass superclass = (ApertaClass)environment.getAt(distance, 0);
+
+        ApertaInstance object = (ApertaInstance)environment.getAt(distance - 1, 0);
 
         ApertaFunction method = superclass.findMethod(object, expr.method.lexeme);
 
@@ -92,13 +173,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, 0);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
+        return expr.node.execute(this, expr, right);
+    }
 
+    /**
+     * The unspecialized unary operators, used by UnaryNode when a site hasn't settled on a type.
+     */
+    Object unaryGeneric(Expr.Unary expr, Object right) {
         switch (expr.operator.type) {
             case BANG:
                 return !isTruthy(right);
@@ -117,38 +204,55 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int distance, int slot) {
+        if (distance != -1) {
+            return environment.getAt(distance, slot);
         } else {
             return globals.get(name);
         }
     }
 
+    /**
+     * Runs a file only the first time it's referenced, later references of the same unchanged file do nothing.
+     */
     private void reference(String file) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(file));
-        String source = new String(bytes, Charset.defaultCharset());
-        Scanner preprocScan = new Scanner(source);
-        Parser preprocParse = new Parser(preprocScan.scanTokens());
-        List<Stmt> preprocStatements = preprocParse.parse();
-        Resolver preprocResolver = new Resolver(this);
-        preprocResolver.resolve(preprocStatements);
-        this.interpret(preprocStatements);
+        ModuleRegistry.Module module = modules.load(file);
+        if (!markExecuted(module)) return;
+        interpretGlobal(module.statements);
     }
 
+    /**
+     * Runs a file every time, as if its code was pasted in, but it's still only parsed once.
+     */
     private void include(String file) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(file));
-        String source = new String(bytes, Charset.defaultCharset());
-        Scanner preprocScan = new Scanner(source);
-        Parser preprocParse = new Parser(preprocScan.scanTokens());
-        List<Stmt> preprocStatements = preprocParse.parse();
-        Resolver preprocResolver = new Resolver(this);
-        preprocResolver.resolve(preprocStatements);
-        this.interpret(preprocStatements);
+        ModuleRegistry.Module module = modules.load(file);
+        markExecuted(module);
+        interpretGlobal(module.statements);
+    }
+
+    /**
+     * Records that a module ran, shared with the VM.
+     * @return - False if it had already run before.
+     */
+    boolean markExecuted(ModuleRegistry.Module module) {
+        return executed.add(module);
+    }
+
+    /**
+     * Runs statements that were resolved as top-level code, so their variables have to land in the globals no matter where the directive was.
+     * @param statements - The statements of the included file.
+     */
+    private void interpretGlobal(List<Stmt> statements) {
+        Environment previous = this.environment;
+        try {
+            this.environment = globals;
+            interpret(statements);
+        } finally {
+            this.environment = previous;
+        }
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -158,17 +262,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     private void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
-            if(operator.type == TokenType.SLASH) {
-                if((double)right == 0.0) throw new RuntimeError(operator, "Can't divide by zero!");
-            } else {
-                return;
+            if(operator.type == TokenType.SLASH && (double)right == 0.0) {
+                throw new RuntimeError(operator, "Can't divide by zero!");
             }
+            return;
         }
 
         throw new RuntimeError(operator, "Operands must be numbers");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Double) return (Double)object != 0;
         if (object instanceof String) return !((String)object).equals("");
@@ -176,7 +279,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         // nil is only equal to nil.
         if(a == null && b == null) return true;
         if (a == null) return false;
@@ -188,20 +291,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+            return OutputSink.format((Double)object);
+        }
+
+        if (object instanceof ApertaArray) {
+            ApertaArray array = (ApertaArray)object;
+            StringBuilder text = new StringBuilder("[");
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) text.append(", ");
+                text.append(stringify(array.get(i)));
             }
-            return text;
+            return text.append("]").toString();
         }
 
-        if (object instanceof List<?>) {
-            StringBuilder text = new StringBuilder();
-            for (Expr val : (List<Expr>)object) {
-                text.append(", ").append(stringify(evaluate(val)));
+        if (object instanceof ApertaTypedArray) {
+            ApertaTypedArray array = (ApertaTypedArray)object;
+            StringBuilder text = new StringBuilder(array.kind()).append(" [");
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) text.append(", ");
+                text.append(stringify(array.read(i)));
             }
-            if(text.length() == 0) return "[]";
-            return "[" + text.toString().substring(2) + "]";
+            return text.append("]").toString();
         }
 
         return object.toString();
@@ -216,43 +326,55 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    /**
+     * Hands over the value of the return statement that just finished a function, without keeping it alive afterwards.
+     */
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    /**
+     * Runs a list of statements in a scope, stopping early if one of them returns (or breaks out of a loop).
+     * @param statements - The statements to run.
+     * @param environment - The scope to run them in.
+     * @return - How the block finished, a RETURN leaves the value in returnValue.
+     */
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
+    public Completion visitClassStmt(Stmt.Class stmt) {
+        int slot = environment.define(stmt.name.lexeme, null);
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
             if (!(superclass instanceof ApertaClass)) {
                 throw new RuntimeError(stmt.name, "Superclass must be a class.");
             }
-            environment = new Environment(environment);
+            environment = new Environment(environment, 1);
             environment.define("super", superclass);
         }
 
@@ -268,35 +390,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
-        return null;
+        if (slot == -1) {
+            environment.assign(stmt.name, klass);
+        } else {
+            environment.assignAt(0, slot, klass);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         ApertaFunction function = new ApertaFunction(stmt, environment, false);
         environment.define(stmt.name.lexeme, function);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPreprocStmt(Stmt.Preproc stmt) {
+    public Completion visitPreprocStmt(Stmt.Preproc stmt) {
         try {
             switch (stmt.type.lexeme) {
                 case "reference":
@@ -311,59 +437,110 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         } catch (IOException e) {
             throw new RuntimeError(stmt.value, e.getMessage());
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+    public Completion visitPrintStmt(Stmt.Print stmt) {
+        print(evaluate(stmt.expression));
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Prints a value on its own line, numbers and strings go to the output sink without being turned into a new string first.
+     * @param value - The value to print.
+     */
+    void print(Object value) {
+        if (value instanceof Double) {
+            out.printLine((double)(Double)value);
+        } else if (value instanceof String) {
+            out.printLine((String)value);
+        } else {
+            out.printLine(stringify(value));
+        }
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
+        if (stmt.value instanceof Expr.Call && ((Expr.Call)stmt.value).tailCall) {
+            value = call((Expr.Call)stmt.value, true);
+        } else if (stmt.value != null) {
+            value = evaluate(stmt.value);
+        }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
         environment.define(stmt.name.lexeme, value);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            loopIterations++;
+            if (completion == Completion.RETURN) return completion;
+            if (completion == Completion.BREAK) break;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitArrayExpr(Expr.Array expr) {
-        List<Object> array = new ArrayList<>();
-        for (Expr val : expr.objects) {
-            array.add(evaluate(val));
+        if (expr.constant != null) return materialize(expr.constant);
+
+        Object[] elements = new Object[expr.objects.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = evaluate(expr.objects.get(i));
         }
-        return array;
+        return new ApertaArray(elements);
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return ApertaArray.getIndex(object, index, expr.bracket);
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+        return ApertaArray.setIndex(object, index, value, expr.bracket);
+    }
+
+    /**
+     * Makes a fresh array out of a literal the Optimizer built ahead of time, arrays can be changed so every evaluation needs its own copy.
+     * @param constant - The pre-built elements, nested arrays are pre-built as Object[] too.
+     * @return - The new array.
+     */
+    static ApertaArray materialize(Object[] constant) {
+        Object[] elements = new Object[constant.length];
+        for (int i = 0; i < elements.length; i++) {
+            Object value = constant[i];
+            elements[i] = value instanceof Object[] ? materialize((Object[])value) : value;
+        }
+        return new ApertaArray(elements);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -375,7 +552,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return expr.node.execute(this, expr, left, right);
+    }
 
+    /**
+     * The unspecialized binary operators, used by BinaryNode when a site hasn't settled on a type.
+     */
+    Object binaryGeneric(Expr.Binary expr, Object left, Object right) {
         switch (expr.operator.type) {
             case BANG_EQUAL: return !isEqual(left, right);
             case EQUAL_EQUAL: return isEqual(left, right);
@@ -421,21 +604,81 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(expr, false);
+    }
+
+    /**
+     * Evaluates a call.
+     * @param expr - The call expression.
+     * @param tail - Whether the call is in tail position, it's then handed back as a TailCall instead of being made.
+     * @return - The result of the call, or the TailCall.
+     */
+    private Object call(Expr.Call expr, boolean tail) {
+        Object callee;
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+
+            // obj.method(args) calls the method straight away instead of binding it to the instance first.
+            ApertaFunction method = directMethod(object, get);
+            if (method != null) return callMethod(expr, method, (ApertaInstance)object, evaluateArguments(expr), tail);
+
+            callee = getProperty(object, get);
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        return call(expr, callee, evaluateArguments(expr), tail);
+    }
+
+    /**
+     * Finds the method obj.method(args) can call without binding it to the instance first.
+     * @param object - The object the method is called on.
+     * @param get - The callee of the call.
+     * @return - The class's method, or null if the property has to be looked up the usual way.
+     */
+    ApertaFunction directMethod(Object object, Expr.Get get) {
+        if (!(object instanceof ApertaInstance)) return null;
+        ApertaInstance instance = (ApertaInstance)object;
+        if (instance.shape.indexOf(get.name.lexeme) != -1) return null;
+        return instance.klass.findMethod(get.name.lexeme);
+    }
+
+    /**
+     * Calls a method found by directMethod with arguments that were already evaluated.
+     * @param expr - The call expression, used for errors.
+     * @param method - The method.
+     * @param instance - The instance it's called on.
+     * @param arguments - The arguments.
+     * @param tail - Whether the call is in tail position, it's then handed back as a TailCall instead of being made.
+     * @return - The result of the call, or the TailCall.
+     */
+    Object callMethod(Expr.Call expr, ApertaFunction method, ApertaInstance instance, List<Object> arguments, boolean tail) {
+        checkArity(expr, method, arguments);
+        if (tail) return new TailCall(expr, method, instance, arguments);
+        try {
+            return method.callMethod(this, instance, arguments);
+        } catch (Error e) {
+            throw new RuntimeError(expr.paren, e.getMessage());
         }
+    }
 
+    /**
+     * Calls a value with arguments that were already evaluated.
+     * @param expr - The call expression, used for errors.
+     * @param callee - What's being called.
+     * @param arguments - The arguments.
+     * @param tail - Whether the call is in tail position, it's then handed back as a TailCall instead of being made.
+     * @return - The result of the call, or the TailCall.
+     */
+    Object call(Expr.Call expr, Object callee, List<Object> arguments, boolean tail) {
         if(!(callee instanceof ApertaCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
         ApertaCallable function = (ApertaCallable)callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
-        }
+        checkArity(expr, function, arguments);
+        if (tail) return new TailCall(expr, function, null, arguments);
 
         try {
             Object val = function.call(this, arguments);
@@ -445,18 +688,40 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
+    }
+
+    private void checkArity(Expr.Call expr, ApertaCallable function, List<Object> arguments) {
+        if (arguments.size() != function.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+    }
+
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object), expr);
+    }
+
+    Object getProperty(Object object, Expr.Get expr) {
         if (object instanceof ApertaInstance) {
-            return ((ApertaInstance) object).get(expr.name);
+            return ((ApertaInstance) object).get(expr);
         } else if (object instanceof ApertaClass) {
             return ((ApertaClass) object).get(expr.name);
-        } else if (object instanceof List<?>) {
-            if(((List<Expr>)object).size()-1 < ((Double)expr.name.literal).intValue()) {
-                return null;
-            }
-            return evaluate(((List<Expr>) object).get(((Double)expr.name.literal).intValue()));
+        } else if (object instanceof ApertaArray) {
+            return ((ApertaArray) object).get(expr.name);
+        } else if (object instanceof ApertaTypedArray) {
+            return ((ApertaTypedArray) object).get(expr.name);
+        } else if (object instanceof ApertaLineReader) {
+            return ((ApertaLineReader) object).get(expr.name);
+        } else if (object instanceof ApertaBuffer) {
+            return ((ApertaBuffer) object).get(expr.name);
+        } else if (object instanceof ApertaFile) {
+            return ((ApertaFile) object).get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances and classes have properties.");
@@ -0,0 +1,280 @@
+package com.apertasoftware.apertalang;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The base class of every function body the JitCompiler turns into JVM bytecode, generated classes extend Numeric or Dynamic.
+ * They're public because the generated classes live in their own class loader and so can't see package-private members.
+ */
+public abstract class JitCode {
+    /**
+     * Returned by enter when the Interpreter has to run the call instead.
+     */
+    static final Object FALLBACK = new Object();
+
+    JitCode() {}
+
+    /**
+     * Runs the compiled body.
+     * @param function - The function being called.
+     * @param enclosing - The scope the body runs in, the function's closure or the scope holding 'this' for a method.
+     * @param interpreter - The context making the call.
+     * @param arguments - The arguments of the call.
+     * @return - The result, already checked against the return type, a TailCall the body returned, or FALLBACK.
+     */
+    abstract Object enter(ApertaFunction function, Environment enclosing, Interpreter interpreter, List<Object> arguments);
+
+    /**
+     * Pure number crunching, every value is an unboxed double.
+     * The body has no side effects, so when the generated code runs into trouble the call can just be run again by the Interpreter.
+     */
+    public abstract static class Numeric extends JitCode {
+        private static final class Deopt extends RuntimeException {
+            Deopt() {
+                super(null, null, false, false);
+            }
+        }
+
+        private static final Deopt DEOPT = new Deopt();
+
+        // Where the function's own name lives, so recursive calls can go straight to the compiled code.
+        Token selfName = null;
+        int selfDepth = -1;
+        int selfSlot = -1;
+
+        public Numeric() {}
+
+        /**
+         * Runs the compiled body, implemented by the generated class.
+         * @param arguments - The arguments, every one already known to be a number.
+         * @return - The number the function returned.
+         */
+        public abstract double invoke(double[] arguments);
+
+        /**
+         * Called from generated code when it hits something it can't handle, like dividing by zero or falling off the end.
+         */
+        public static double deoptimize() {
+            throw DEOPT;
+        }
+
+        @Override
+        Object enter(ApertaFunction function, Environment enclosing, Interpreter interpreter, List<Object> arguments) {
+            double[] values = new double[arguments.size()];
+            for (int i = 0; i < values.length; i++) {
+                Object argument = arguments.get(i);
+                if (!(argument instanceof Double)) return FALLBACK;
+                values[i] = (Double)argument;
+            }
+
+            if (selfName != null) {
+                Object self;
+                if (selfDepth == -1) {
+                    self = interpreter.globals.getIfDefined(selfName.lexeme);
+                } else {
+                    self = enclosing.getAt(selfDepth, selfSlot);
+                }
+                if (self != function) return FALLBACK;
+            }
+
+            try {
+                return function.checkReturn(invoke(values));
+            } catch (Deopt deopt) {
+                // Gave up part way through, the function goes back to the Interpreter for good.
+                function.deoptimize(this);
+                return FALLBACK;
+            } catch (StackOverflowError e) {
+                // Compiled recursion uses more of the Java stack than the Interpreter's tail calls do, so let the Interpreter try.
+                return FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * Any other body. Values are Objects and everything dynamic is handed back to the Interpreter through the methods below,
+     * which the generated code calls with the index of the AST node in sites.
+     * Arithmetic at sites the Interpreter has only ever seen numbers at is done straight away behind a type guard. When a guard fails
+     * the operation still finishes through the Interpreter, but the function is deoptimized once the call is over and stays in the tree-walker.
+     * Side effects may already have happened by then, so unlike Numeric the call is never run again.
+     */
+    public abstract static class Dynamic extends JitCode {
+        // The AST nodes, names and constants the generated code refers to.
+        Object[] sites;
+        // Set when a type guard failed.
+        private volatile boolean invalidated = false;
+
+        public Dynamic() {}
+
+        /**
+         * Runs the compiled body, implemented by the generated class.
+         * @param interpreter - The Interpreter making the call.
+         * @param function - The ApertaFunction being called.
+         * @param environment - The Environment the body runs in.
+         * @param arguments - The arguments.
+         * @return - What the function returned, already checked against its return type, or a TailCall.
+         */
+        public abstract Object run(Object interpreter, Object function, Object environment, Object[] arguments);
+
+        @Override
+        Object enter(ApertaFunction function, Environment enclosing, Interpreter interpreter, List<Object> arguments) {
+            try {
+                return run(interpreter, function, enclosing, arguments.toArray());
+            } finally {
+                if (invalidated) function.deoptimize(this);
+            }
+        }
+
+        private Object guardFailed(Object interpreter, int site, Object left, Object right) {
+            invalidated = true;
+            return binary(interpreter, site, left, right);
+        }
+
+        public Object constant(int site) {
+            return sites[site];
+        }
+
+        public static Object variable(Object environment, int depth, int slot) {
+            return ((Environment)environment).getAt(depth, slot);
+        }
+
+        public static Object assignVariable(Object environment, int depth, int slot, Object value) {
+            ((Environment)environment).assignAt(depth, slot, value);
+            return value;
+        }
+
+        public Object global(Object interpreter, int site) {
+            return ((Interpreter)interpreter).globals.get(((Expr.Variable)sites[site]).name);
+        }
+
+        public Object assignGlobal(Object interpreter, int site, Object value) {
+            ((Interpreter)interpreter).globals.assign(((Expr.Assign)sites[site]).name, value);
+            return value;
+        }
+
+        public static boolean truthy(Object value) {
+            return Interpreter.isTruthy(value);
+        }
+
+        public static void print(Object interpreter, Object value) {
+            ((Interpreter)interpreter).print(value);
+        }
+
+        public Object returned(Object function, Object value) {
+            if (value instanceof TailCall) return value;
+            return ((ApertaFunction)function).checkReturn(value);
+        }
+
+        public Object add(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object subtract(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left - (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object multiply(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left * (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object divide(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                // Still numbers, the Interpreter only has to report dividing by zero.
+                if ((double)right == 0.0) return binary(interpreter, site, left, right);
+                return (double)left / (double)right;
+            }
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object less(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left < (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object lessEqual(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object greater(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left > (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object greaterEqual(Object interpreter, int site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+            return guardFailed(interpreter, site, left, right);
+        }
+
+        public Object binary(Object interpreter, int site, Object left, Object right) {
+            Expr.Binary expr = (Expr.Binary)sites[site];
+            return expr.node.execute((Interpreter)interpreter, expr, left, right);
+        }
+
+        public Object negate(Object interpreter, int site, Object right) {
+            if (right instanceof Double) return -(double)right;
+            invalidated = true;
+            return unary(interpreter, site, right);
+        }
+
+        public Object unary(Object interpreter, int site, Object right) {
+            Expr.Unary expr = (Expr.Unary)sites[site];
+            return expr.node.execute((Interpreter)interpreter, expr, right);
+        }
+
+        public Object property(Object interpreter, int site, Object object) {
+            return ((Interpreter)interpreter).getProperty(object, (Expr.Get)((Expr.Call)sites[site]).callee);
+        }
+
+        public Object get(Object interpreter, int site, Object object) {
+            return ((Interpreter)interpreter).getProperty(object, (Expr.Get)sites[site]);
+        }
+
+        /**
+         * @return - The method obj.method(args) can call without binding it, or null.
+         */
+        public Object method(Object interpreter, int site, Object object) {
+            return ((Interpreter)interpreter).directMethod(object, (Expr.Get)((Expr.Call)sites[site]).callee);
+        }
+
+        public Object call(Object interpreter, int site, Object callee, Object[] arguments, boolean tail) {
+            return ((Interpreter)interpreter).call((Expr.Call)sites[site], callee, Arrays.asList(arguments), tail);
+        }
+
+        public Object callMethod(Object interpreter, int site, Object method, Object object, Object[] arguments, boolean tail) {
+            return ((Interpreter)interpreter).callMethod((Expr.Call)sites[site], (ApertaFunction)method, (ApertaInstance)object, Arrays.asList(arguments), tail);
+        }
+
+        public Object fields(int site, Object object) {
+            return Interpreter.fieldsOf(object, (Expr.Set)sites[site]);
+        }
+
+        public Object set(int site, Object object, Object value) {
+            ((ApertaInstance)object).set((Expr.Set)sites[site], value);
+            return value;
+        }
+
+        public Object index(int site, Object object, Object index) {
+            return ApertaArray.getIndex(object, index, ((Expr.Index)sites[site]).bracket);
+        }
+
+        public Object setIndex(int site, Object object, Object index, Object value) {
+            return ApertaArray.setIndex(object, index, value, ((Expr.IndexSet)sites[site]).bracket);
+        }
+
+        public static Object array(Object[] elements) {
+            return new ApertaArray(elements);
+        }
+
+        public Object constantArray(int site) {
+            return Interpreter.materialize(((Expr.Array)sites[site]).constant);
+        }
+
+        public Object superMethod(Object environment, int site, int depth) {
+            return Interpreter.superMethod((Environment)environment, depth, (Expr.Super)sites[site]);
+        }
+    }
+}
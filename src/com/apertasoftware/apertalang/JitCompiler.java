@@ -0,0 +1,902 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Second tier for hot ApertaFunctions, turns a function body into a JVM class so HotSpot can compile it further.
+ * Pure number crunching, where parameters and locals are all numbers and the only call is the function calling itself, becomes a
+ * JitCode.Numeric working on unboxed doubles. Because that has no side effects, generated code that runs into trouble (a non-number
+ * result, dividing by zero) just gives up and the call gets run again by the Interpreter, which produces the proper result or error.
+ * Every other body becomes a JitCode.Dynamic: locals live in JVM locals, and globals, strings, instances, properties and calls go
+ * through JitCode.Dynamic's helpers back into the Interpreter. Only bodies that create closures (nested functions, classes, lambdas)
+ * and preprocessor statements stay interpreted, since those need the locals to live in real Environments.
+ */
+class JitCompiler {
+    static final boolean ENABLED = !"false".equals(System.getProperty("apertalang.jit"));
+    static final int CALL_THRESHOLD = Integer.getInteger("apertalang.jit.calls", 1000);
+    static final long LOOP_THRESHOLD = Integer.getInteger("apertalang.jit.loops", 10000);
+
+    private static final String NUMERIC = "com/apertasoftware/apertalang/JitCode$Numeric";
+    private static final String DYNAMIC = "com/apertasoftware/apertalang/JitCode$Dynamic";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String RUN_DYNAMIC = "(" + OBJECT + OBJECT + OBJECT + "[" + OBJECT + ")" + OBJECT;
+
+    // The JVM locals a dynamic body starts with, its own locals come after them.
+    private static final int INTERPRETER = 1;
+    private static final int FUNCTION = 2;
+    private static final int ENVIRONMENT = 3;
+    private static final int ARGUMENTS = 4;
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    /**
+     * Every compiled function gets its own loader so the class can be collected along with the function.
+     */
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(JitCode.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Thrown while generating code when the body uses something outside of what can be compiled.
+     */
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private final Stmt.Function declaration;
+    private final boolean isInitializer;
+    private final boolean dynamic;
+    private final String className;
+    private final String runDescriptor;
+    private final ClassFileWriter writer = new ClassFileWriter();
+    private final ClassFileWriter.Code code = new ClassFileWriter.Code();
+    private final List<ClassFileWriter.Label> labels = new ArrayList<>();
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    private int nextLocal;
+    private int maxLocals = 0;
+    private final ClassFileWriter.Label start = new ClassFileWriter.Label();
+    // What the Dynamic helpers look up by index, see JitCode.Dynamic.sites.
+    private final List<Object> sites = new ArrayList<>();
+
+    private Token selfName = null;
+    private int selfDepth = -1;
+    private int selfSlot = -1;
+
+    private JitCompiler(Stmt.Function declaration, boolean isInitializer, boolean dynamic) {
+        this.declaration = declaration;
+        this.isInitializer = isInitializer;
+        this.dynamic = dynamic;
+        this.nextLocal = dynamic ? ARGUMENTS + 1 : 0;
+        this.className = "apertajit/" + sanitize(declaration.name.lexeme) + "_" + classCounter.getAndIncrement();
+
+        if (dynamic) {
+            this.runDescriptor = RUN_DYNAMIC;
+        } else {
+            StringBuilder descriptor = new StringBuilder("(");
+            for (int i = 0; i < declaration.parameters.size(); i++) descriptor.append('D');
+            this.runDescriptor = descriptor.append(")D").toString();
+        }
+    }
+
+    /**
+     * Tries to compile a function, as a JitCode.Numeric if it only works on numbers and otherwise as a JitCode.Dynamic.
+     * @param declaration - The function to compile.
+     * @param isInitializer - Whether the function is a class's init method, which returns 'this' when it falls off the end.
+     * @return - The compiled code, or null if the function uses anything that isn't supported.
+     */
+    static JitCode compile(Stmt.Function declaration, boolean isInitializer) {
+        if (declaration.parameters.size() > 100) return null;
+
+        TokenType returnType = declaration.returnType.type;
+        if (!isInitializer && (returnType == TokenType.NUMBER || returnType == TokenType.ANY)) {
+            JitCompiler compiler = new JitCompiler(declaration, false, false);
+            JitCode.Numeric compiled = (JitCode.Numeric)compiler.instantiate(NUMERIC);
+            if (compiled != null) {
+                compiled.selfName = compiler.selfName;
+                compiled.selfDepth = compiler.selfDepth;
+                compiled.selfSlot = compiler.selfSlot;
+                return compiled;
+            }
+        }
+
+        JitCompiler compiler = new JitCompiler(declaration, isInitializer, true);
+        JitCode.Dynamic compiled = (JitCode.Dynamic)compiler.instantiate(DYNAMIC);
+        if (compiled != null) compiled.sites = compiler.sites.toArray();
+        return compiled;
+    }
+
+    /**
+     * Generates the class and creates an instance of it.
+     * @param superClass - JitCode.Numeric or JitCode.Dynamic.
+     * @return - The instance, or null if the body couldn't be compiled.
+     */
+    private JitCode instantiate(String superClass) {
+        byte[] bytes;
+        try {
+            bytes = generate(superClass);
+        } catch (Unsupported e) {
+            return null;
+        }
+        if (bytes == null) return null;
+
+        try {
+            Class<?> generated = new Loader().define(className.replace('/', '.'), bytes);
+            return (JitCode)generated.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // A bug in the generated code shouldn't take the program down, the Interpreter can keep going on its own.
+            return null;
+        }
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder result = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            result.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return result.toString();
+    }
+
+    private byte[] generate(String superClass) {
+        beginScope();
+        for (int i = 0; i < declaration.parameters.size(); i++) {
+            int local = declareLocal(declaration.parameters.get(i).lexeme);
+            if (dynamic) {
+                load(ARGUMENTS);
+                pushInt(i);
+                code.op(0x32, -1); // aaload
+                store(local);
+            }
+        }
+        code.mark(start);
+        for (Stmt statement : declaration.body) {
+            statement(statement);
+        }
+
+        if (!dynamic) {
+            // Falling off the end returns nil, which isn't a number.
+            deoptimize();
+        } else if (isInitializer) {
+            // Falling off the end of init returns 'this', which sits in the scope right outside the parameters.
+            load(ENVIRONMENT);
+            pushInt(0);
+            pushInt(0);
+            invoke(0xb8, DYNAMIC, "variable", "(" + OBJECT + "II)" + OBJECT);
+            code.op(0xb0, -1); // areturn
+        } else {
+            code.op(0x01, 1); // aconst_null
+            code.op(0xb0, -1); // areturn
+        }
+
+        code.maxLocals = Math.max(maxLocals, nextLocal);
+        if (code.maxLocals > 255) return null;
+        if (!code.resolve(labels)) return null;
+
+        if (dynamic) {
+            writer.addMethod(ClassFileWriter.ACC_PUBLIC, "run", runDescriptor, code);
+        } else {
+            writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "run", runDescriptor, code);
+            writer.addMethod(ClassFileWriter.ACC_PUBLIC, "invoke", "([D)D", bridge());
+        }
+        writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", constructor(superClass));
+        return writer.toByteArray(className, superClass);
+    }
+
+    private ClassFileWriter.Code constructor(String superClass) {
+        ClassFileWriter.Code init = new ClassFileWriter.Code();
+        init.op(0x2a, 1); // aload_0
+        init.op(0xb7, -1); // invokespecial
+        init.u2(writer.methodRef(superClass, "<init>", "()V"));
+        init.op(0xb1, 0); // return
+        init.maxLocals = 1;
+        return init;
+    }
+
+    /**
+     * Unpacks the argument array and calls the static body, so recursive calls can skip the array entirely.
+     */
+    private ClassFileWriter.Code bridge() {
+        ClassFileWriter.Code invoke = new ClassFileWriter.Code();
+        int arity = declaration.parameters.size();
+        for (int i = 0; i < arity; i++) {
+            invoke.op(0x2b, 1); // aload_1
+            invoke.op(0x10, 1); // bipush
+            invoke.u1(i);
+            invoke.op(0x31, 0); // daload
+        }
+        invoke.op(0xb8, 2 - arity * 2); // invokestatic
+        invoke.u2(writer.methodRef(className, "run", runDescriptor));
+        invoke.op(0xaf, -2); // dreturn
+        invoke.maxLocals = 2;
+        return invoke;
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<String, Integer>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private int declareLocal(String name) {
+        int local = nextLocal;
+        scopes.get(scopes.size() - 1).put(name, local);
+        // Doubles take two JVM locals, references one.
+        nextLocal += dynamic ? 1 : 2;
+        return local;
+    }
+
+    private Integer findLocal(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer local = scopes.get(i).get(name);
+            if (local != null) return local;
+        }
+        return null;
+    }
+
+    private ClassFileWriter.Label label() {
+        ClassFileWriter.Label label = new ClassFileWriter.Label();
+        labels.add(label);
+        return label;
+    }
+
+    private void deoptimize() {
+        int depth = code.stackDepth();
+        code.op(0xb8, 2); // invokestatic
+        code.u2(writer.methodRef(NUMERIC, "deoptimize", "()D"));
+        code.op(0xaf, -2); // dreturn
+        code.setStackDepth(depth);
+    }
+
+    private void statement(Stmt stmt) {
+        if (dynamic) {
+            dynamicStatement(stmt);
+            return;
+        }
+
+        if (stmt instanceof Stmt.Expression) {
+            Expr expression = ((Stmt.Expression)stmt).expression;
+            if (expression instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign)expression;
+                int local = assignTarget(assign);
+                number(assign.value);
+                store(local);
+            } else {
+                number(expression);
+                code.op(0x58, -2); // pop2
+            }
+        } else if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var)stmt;
+            if (var.initializer == null) throw UNSUPPORTED;
+            number(var.initializer);
+            store(declareLocal(var.name.lexeme));
+        } else if (stmt instanceof Stmt.Block) {
+            beginScope();
+            for (Stmt statement : ((Stmt.Block)stmt).statements) {
+                statement(statement);
+            }
+            endScope();
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            ClassFileWriter.Label elseBranch = label();
+            ClassFileWriter.Label end = label();
+            condition(ifStmt.condition, false, elseBranch);
+            statement(ifStmt.thenBranch);
+            code.branch(0xa7, 0, end); // goto
+            code.mark(elseBranch);
+            if (ifStmt.elseBranch != null) statement(ifStmt.elseBranch);
+            code.mark(end);
+        } else if (stmt instanceof Stmt.While) {
+            Stmt.While whileStmt = (Stmt.While)stmt;
+            ClassFileWriter.Label start = label();
+            ClassFileWriter.Label end = label();
+            code.mark(start);
+            condition(whileStmt.condition, false, end);
+            statement(whileStmt.body);
+            code.branch(0xa7, 0, start); // goto
+            code.mark(end);
+        } else if (stmt instanceof Stmt.Return) {
+            Stmt.Return returnStmt = (Stmt.Return)stmt;
+            if (returnStmt.value == null) throw UNSUPPORTED;
+            if (returnStmt.value instanceof Expr.Call && ((Expr.Call)returnStmt.value).tailCall) {
+                tailCall((Expr.Call)returnStmt.value);
+                return;
+            }
+            number(returnStmt.value);
+            code.op(0xaf, -2); // dreturn
+        } else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private int assignTarget(Expr.Assign assign) {
+        Integer local = findLocal(assign.name.lexeme);
+        if (local == null) throw UNSUPPORTED;
+        return local;
+    }
+
+    private void store(int local) {
+        if (dynamic) {
+            code.op(0x3a, -1); // astore
+        } else {
+            code.op(0x39, -2); // dstore
+        }
+        code.u1(local);
+    }
+
+    private void load(int local) {
+        code.op(0x19, 1); // aload
+        code.u1(local);
+    }
+
+    /**
+     * Emits an expression that leaves a double on the stack.
+     */
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            number(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            if (!(value instanceof Double)) throw UNSUPPORTED;
+            double number = (Double)value;
+            if (Double.doubleToRawLongBits(number) == 0L) {
+                code.op(0x0e, 2); // dconst_0
+            } else if (number == 1.0) {
+                code.op(0x0f, 2); // dconst_1
+            } else {
+                code.op(0x14, 2); // ldc2_w
+                code.u2(writer.doubleConstant(number));
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Integer local = findLocal(((Expr.Variable)expr).name.lexeme);
+            if (local == null) throw UNSUPPORTED;
+            code.op(0x18, 2); // dload
+            code.u1(local);
+        } else if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            int local = assignTarget(assign);
+            number(assign.value);
+            code.op(0x5c, 2); // dup2
+            store(local);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operator.type != TokenType.MINUS) throw UNSUPPORTED;
+            number(unary.right);
+            code.op(0x77, 0); // dneg
+        } else if (expr instanceof Expr.Binary) {
+            arithmetic((Expr.Binary)expr);
+        } else if (expr instanceof Expr.Call) {
+            selfCall((Expr.Call)expr);
+        } else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private void arithmetic(Expr.Binary expr) {
+        int opcode;
+        switch (expr.operator.type) {
+            case PLUS: opcode = 0x63; break; // dadd
+            case MINUS: opcode = 0x67; break; // dsub
+            case STAR: opcode = 0x6b; break; // dmul
+            case SLASH: opcode = 0x6f; break; // ddiv
+            default: throw UNSUPPORTED;
+        }
+
+        number(expr.left);
+        number(expr.right);
+        if (opcode == 0x6f) {
+            // Dividing by zero is an error, leave reporting it to the Interpreter.
+            ClassFileWriter.Label nonZero = label();
+            code.op(0x5c, 2); // dup2
+            code.op(0x0e, 2); // dconst_0
+            code.op(0x97, -3); // dcmpl
+            code.branch(0x9a, -1, nonZero); // ifne
+            deoptimize();
+            code.mark(nonZero);
+        }
+        code.op(opcode, -2);
+    }
+
+    private void selfCall(Expr.Call call) {
+        checkSelfCall(call);
+        for (Expr argument : call.arguments) {
+            number(argument);
+        }
+        code.op(0xb8, 2 - call.arguments.size() * 2); // invokestatic
+        code.u2(writer.methodRef(className, "run", runDescriptor));
+    }
+
+    /**
+     * A self call the Resolver marked as a tail call becomes a jump back to the top with the new arguments, so it runs as a loop.
+     */
+    private void tailCall(Expr.Call call) {
+        checkSelfCall(call);
+        for (Expr argument : call.arguments) {
+            number(argument);
+        }
+        // The parameters are the first locals, two slots each.
+        for (int i = call.arguments.size() - 1; i >= 0; i--) {
+            store(i * 2);
+        }
+        code.branch(0xa7, 0, start); // goto
+    }
+
+    private void checkSelfCall(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable)) throw UNSUPPORTED;
+        Expr.Variable callee = (Expr.Variable)call.callee;
+        if (!callee.name.lexeme.equals(declaration.name.lexeme) || findLocal(callee.name.lexeme) != null) throw UNSUPPORTED;
+        if (call.arguments.size() != declaration.parameters.size()) throw UNSUPPORTED;
+
+        // The scope holding the parameters is scopes[0], and the function's closure is one further out.
+        int depth = callee.depth == -1 ? -1 : callee.depth - scopes.size();
+        if (callee.depth != -1 && depth < 0) throw UNSUPPORTED;
+        if (selfName != null && (depth != selfDepth || callee.slot != selfSlot)) throw UNSUPPORTED;
+        selfName = callee.name;
+        selfDepth = depth;
+        selfSlot = callee.slot;
+    }
+
+    /**
+     * Emits a branch to target taken when the condition's truthiness equals jumpWhen.
+     */
+    private void condition(Expr expr, boolean jumpWhen, ClassFileWriter.Label target) {
+        if (expr instanceof Expr.Grouping) {
+            condition(((Expr.Grouping)expr).expression, jumpWhen, target);
+            return;
+        }
+
+        if (expr instanceof Expr.Literal && ((Expr.Literal)expr).value instanceof Boolean) {
+            if ((Boolean)((Expr.Literal)expr).value == jumpWhen) code.branch(0xa7, 0, target); // goto
+            return;
+        }
+
+        if (expr instanceof Expr.Unary && ((Expr.Unary)expr).operator.type == TokenType.BANG) {
+            condition(((Expr.Unary)expr).right, !jumpWhen, target);
+            return;
+        }
+
+        if (dynamic && !(expr instanceof Expr.Logical)) {
+            value(expr);
+            invoke(0xb8, DYNAMIC, "truthy", "(" + OBJECT + ")Z");
+            code.branch(jumpWhen ? 0x9a : 0x99, -1, target); // ifne / ifeq
+            return;
+        }
+
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            boolean isAnd = logical.operator.type == TokenType.AND;
+            if (isAnd != jumpWhen) {
+                // 'a and b' jumping when false, or 'a or b' jumping when true: either side decides it.
+                condition(logical.left, jumpWhen, target);
+                condition(logical.right, jumpWhen, target);
+            } else {
+                ClassFileWriter.Label skip = label();
+                condition(logical.left, !jumpWhen, skip);
+                condition(logical.right, jumpWhen, target);
+                code.mark(skip);
+            }
+            return;
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case EQUAL_EQUAL:
+                case BANG_EQUAL: {
+                    // Numbers are compared with Double.equals, so NaN equals itself and 0 isn't -0.
+                    int toBits = writer.methodRef("java/lang/Double", "doubleToLongBits", "(D)J");
+                    number(binary.left);
+                    code.op(0xb8, 0); // invokestatic
+                    code.u2(toBits);
+                    number(binary.right);
+                    code.op(0xb8, 0); // invokestatic
+                    code.u2(toBits);
+                    code.op(0x94, -3); // lcmp
+                    boolean equal = binary.operator.type == TokenType.EQUAL_EQUAL;
+                    code.branch(equal == jumpWhen ? 0x99 : 0x9a, -1, target); // ifeq / ifne
+                    return;
+                }
+                case LESS:
+                case LESS_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL: {
+                    number(binary.left);
+                    number(binary.right);
+                    comparison(binary.operator.type, jumpWhen, target);
+                    return;
+                }
+                default:
+                    break;
+            }
+        }
+
+        // Any other number is truthy unless it's 0.
+        number(expr);
+        code.op(0x0e, 2); // dconst_0
+        code.op(0x97, -3); // dcmpl
+        code.branch(jumpWhen ? 0x9a : 0x99, -1, target); // ifne / ifeq
+    }
+
+    /**
+     * Picks the compare instruction so a NaN operand always makes the comparison false, like it does in Java.
+     */
+    private void comparison(TokenType operator, boolean jumpWhen, ClassFileWriter.Label target) {
+        boolean less = operator == TokenType.LESS || operator == TokenType.LESS_EQUAL;
+        // dcmpg pushes 1 for NaN and dcmpl pushes -1, so for '<' use the one that reads as "not less".
+        code.op(less ? 0x98 : 0x97, -3);
+
+        int opcode;
+        switch (operator) {
+            case LESS: opcode = jumpWhen ? 0x9b : 0x9c; break; // iflt / ifge
+            case LESS_EQUAL: opcode = jumpWhen ? 0x9e : 0x9d; break; // ifle / ifgt
+            case GREATER: opcode = jumpWhen ? 0x9d : 0x9e; break; // ifgt / ifle
+            default: opcode = jumpWhen ? 0x9c : 0x9b; break; // ifge / iflt
+        }
+        code.branch(opcode, -1, target);
+    }
+
+    /**
+     * Emits an invoke instruction, working out how it changes the stack from the descriptor.
+     * @param opcode - invokevirtual or invokestatic.
+     * @param owner - The class the method is declared in.
+     * @param name - The method's name.
+     * @param descriptor - The method's descriptor.
+     */
+    private void invoke(int opcode, String owner, String name, String descriptor) {
+        int effect = opcode == 0xb8 ? 0 : -1;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            effect -= c == 'D' || c == 'J' ? 2 : 1;
+            while (descriptor.charAt(i) == '[') i++;
+            i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+        }
+        char result = descriptor.charAt(i + 1);
+        effect += result == 'V' ? 0 : result == 'D' || result == 'J' ? 2 : 1;
+        code.op(opcode, effect);
+        code.u2(writer.methodRef(owner, name, descriptor));
+    }
+
+    /**
+     * Calls one of JitCode.Dynamic's instance helpers, the receiver and the helper's other arguments have to be on the stack already.
+     */
+    private void helper(String name, String descriptor) {
+        invoke(0xb6, DYNAMIC, name, descriptor);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.op(0x03 + value, 1); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(0x10, 1); // bipush
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(0x11, 1); // sipush
+            code.u2(value);
+        } else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Pushes 'this', the interpreter and the index of a site, the first arguments most helpers take.
+     */
+    private void site(Object node, boolean withInterpreter) {
+        code.op(0x2a, 1); // aload_0
+        if (withInterpreter) load(INTERPRETER);
+        pushInt(sites.size());
+        sites.add(node);
+    }
+
+    private void dynamicStatement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression) {
+            value(((Stmt.Expression)stmt).expression);
+            code.op(0x57, -1); // pop
+        } else if (stmt instanceof Stmt.Print) {
+            load(INTERPRETER);
+            value(((Stmt.Print)stmt).expression);
+            invoke(0xb8, DYNAMIC, "print", "(" + OBJECT + OBJECT + ")V");
+        } else if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var)stmt;
+            if (var.initializer != null) {
+                value(var.initializer);
+            } else {
+                code.op(0x01, 1); // aconst_null
+            }
+            store(declareLocal(var.name.lexeme));
+        } else if (stmt instanceof Stmt.Block) {
+            beginScope();
+            for (Stmt statement : ((Stmt.Block)stmt).statements) {
+                statement(statement);
+            }
+            endScope();
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            ClassFileWriter.Label elseBranch = label();
+            ClassFileWriter.Label end = label();
+            condition(ifStmt.condition, false, elseBranch);
+            statement(ifStmt.thenBranch);
+            code.branch(0xa7, 0, end); // goto
+            code.mark(elseBranch);
+            if (ifStmt.elseBranch != null) statement(ifStmt.elseBranch);
+            code.mark(end);
+        } else if (stmt instanceof Stmt.While) {
+            Stmt.While whileStmt = (Stmt.While)stmt;
+            ClassFileWriter.Label start = label();
+            ClassFileWriter.Label end = label();
+            code.mark(start);
+            condition(whileStmt.condition, false, end);
+            statement(whileStmt.body);
+            code.branch(0xa7, 0, start); // goto
+            code.mark(end);
+        } else if (stmt instanceof Stmt.Return) {
+            Stmt.Return returnStmt = (Stmt.Return)stmt;
+            code.op(0x2a, 1); // aload_0
+            load(FUNCTION);
+            if (returnStmt.value instanceof Expr.Call && ((Expr.Call)returnStmt.value).tailCall) {
+                call((Expr.Call)returnStmt.value, true);
+            } else if (returnStmt.value != null) {
+                value(returnStmt.value);
+            } else {
+                code.op(0x01, 1); // aconst_null
+            }
+            helper("returned", "(" + OBJECT + OBJECT + ")" + OBJECT);
+            code.op(0xb0, -1); // areturn
+        } else {
+            // Functions, classes and lambdas capture the scope they're made in, which compiled locals don't have.
+            throw UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Emits an expression that leaves an Object on the stack, the same value the Interpreter would produce.
+     */
+    private void value(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            value(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            if (value == null) {
+                code.op(0x01, 1); // aconst_null
+            } else {
+                // Handing out the literal's own boxed value saves boxing it again on every evaluation.
+                site(value, false);
+                helper("constant", "(I)" + OBJECT);
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if (variable.depth == -1) {
+                site(variable, true);
+                helper("global", "(" + OBJECT + "I)" + OBJECT);
+            } else {
+                variable(variable.name.lexeme, variable.depth, variable.slot);
+            }
+        } else if (expr instanceof Expr.This) {
+            variable("this", ((Expr.This)expr).depth, 0);
+        } else if (expr instanceof Expr.Assign) {
+            assign((Expr.Assign)expr);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            boolean speculate = unary.operator.type == TokenType.MINUS && UnaryNode.sawNumber(unary);
+            site(unary, true);
+            value(unary.right);
+            helper(speculate ? "negate" : "unary", "(" + OBJECT + "I" + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            String helper = BinaryNode.sawNumbers(binary) ? speculated(binary.operator.type) : "binary";
+            site(binary, true);
+            value(binary.left);
+            value(binary.right);
+            helper(helper, "(" + OBJECT + "I" + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            ClassFileWriter.Label end = label();
+            value(logical.left);
+            code.op(0x59, 1); // dup
+            invoke(0xb8, DYNAMIC, "truthy", "(" + OBJECT + ")Z");
+            // 'or' keeps a truthy left side, 'and' keeps a falsey one.
+            code.branch(logical.operator.type == TokenType.OR ? 0x9a : 0x99, -1, end); // ifne / ifeq
+            code.op(0x57, -1); // pop
+            value(logical.right);
+            code.mark(end);
+        } else if (expr instanceof Expr.Call) {
+            call((Expr.Call)expr, false);
+        } else if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr;
+            site(get, true);
+            value(get.object);
+            helper("get", "(" + OBJECT + "I" + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set)expr;
+            site(set, false);
+            site(set, false);
+            value(set.object);
+            helper("fields", "(I" + OBJECT + ")" + OBJECT);
+            value(set.value);
+            helper("set", "(I" + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof Expr.Index) {
+            Expr.Index index = (Expr.Index)expr;
+            site(index, false);
+            value(index.object);
+            value(index.index);
+            helper("index", "(I" + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof Expr.IndexSet) {
+            Expr.IndexSet index = (Expr.IndexSet)expr;
+            site(index, false);
+            value(index.object);
+            value(index.index);
+            value(index.value);
+            helper("setIndex", "(I" + OBJECT + OBJECT + OBJECT + ")" + OBJECT);
+        } else if (expr instanceof Expr.Array) {
+            Expr.Array array = (Expr.Array)expr;
+            if (array.constant != null) {
+                site(array, false);
+                helper("constantArray", "(I)" + OBJECT);
+            } else {
+                array(array.objects);
+                invoke(0xb8, DYNAMIC, "array", "([" + OBJECT + ")" + OBJECT);
+            }
+        } else if (expr instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr;
+            // 'super' sits outside the scope holding 'this', both outside the compiled locals.
+            int depth = superExpr.depth - scopes.size();
+            if (depth < 1) throw UNSUPPORTED;
+            code.op(0x2a, 1); // aload_0
+            load(ENVIRONMENT);
+            pushInt(sites.size());
+            sites.add(superExpr);
+            pushInt(depth);
+            helper("superMethod", "(" + OBJECT + "II)" + OBJECT);
+        } else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    /**
+     * The helper that does an arithmetic or comparison operator straight away while both operands are numbers.
+     */
+    private static String speculated(TokenType operator) {
+        switch (operator) {
+            case PLUS: return "add";
+            case MINUS: return "subtract";
+            case STAR: return "multiply";
+            case SLASH: return "divide";
+            case LESS: return "less";
+            case LESS_EQUAL: return "lessEqual";
+            case GREATER: return "greater";
+            case GREATER_EQUAL: return "greaterEqual";
+            default: return "binary";
+        }
+    }
+
+    /**
+     * Loads a variable the Resolver put in a scope. Scopes inside the body are JVM locals, the rest are read from the environment.
+     */
+    private void variable(String name, int depth, int slot) {
+        if (depth < scopes.size()) {
+            load(localAt(name, depth));
+            return;
+        }
+        load(ENVIRONMENT);
+        pushInt(depth - scopes.size());
+        pushInt(slot);
+        invoke(0xb8, DYNAMIC, "variable", "(" + OBJECT + "II)" + OBJECT);
+    }
+
+    private void assign(Expr.Assign assign) {
+        if (assign.depth == -1) {
+            site(assign, true);
+            value(assign.value);
+            helper("assignGlobal", "(" + OBJECT + "I" + OBJECT + ")" + OBJECT);
+        } else if (assign.depth < scopes.size()) {
+            int local = localAt(assign.name.lexeme, assign.depth);
+            value(assign.value);
+            code.op(0x59, 1); // dup
+            store(local);
+        } else {
+            load(ENVIRONMENT);
+            pushInt(assign.depth - scopes.size());
+            pushInt(assign.slot);
+            value(assign.value);
+            invoke(0xb8, DYNAMIC, "assignVariable", "(" + OBJECT + "II" + OBJECT + ")" + OBJECT);
+        }
+    }
+
+    private int localAt(String name, int depth) {
+        Integer local = scopes.get(scopes.size() - 1 - depth).get(name);
+        if (local == null) throw UNSUPPORTED;
+        return local;
+    }
+
+    /**
+     * Builds an Object[] out of the values of some expressions.
+     */
+    private void array(List<Expr> elements) {
+        pushInt(elements.size());
+        code.op(0xbd, 0); // anewarray
+        code.u2(writer.classRef("java/lang/Object"));
+        for (int i = 0; i < elements.size(); i++) {
+            code.op(0x59, 1); // dup
+            pushInt(i);
+            value(elements.get(i));
+            code.op(0x53, -3); // aastore
+        }
+    }
+
+    /**
+     * Emits a call the same way the Interpreter makes it: obj.method(args) calls the class's method without binding it when it can.
+     * @param tail - Whether the call is in tail position, it then leaves a TailCall for the caller to follow.
+     */
+    private void call(Expr.Call call, boolean tail) {
+        if (!(call.callee instanceof Expr.Get)) {
+            site(call, true);
+            value(call.callee);
+            array(call.arguments);
+            pushInt(tail ? 1 : 0);
+            helper("call", "(" + OBJECT + "I" + OBJECT + "[" + OBJECT + "Z)" + OBJECT);
+            return;
+        }
+
+        // No declarations happen inside an expression, so the temporaries can be handed back once the call is emitted.
+        int locals = nextLocal;
+        int object = nextLocal++;
+        int method = nextLocal++;
+        int index = sites.size();
+        sites.add(call);
+
+        value(((Expr.Get)call.callee).object);
+        store(object);
+        code.op(0x2a, 1); // aload_0
+        load(INTERPRETER);
+        pushInt(index);
+        load(object);
+        helper("method", "(" + OBJECT + "I" + OBJECT + ")" + OBJECT);
+        store(method);
+
+        ClassFileWriter.Label property = label();
+        ClassFileWriter.Label end = label();
+        load(method);
+        code.branch(0xc6, -1, property); // ifnull
+
+        code.op(0x2a, 1); // aload_0
+        load(INTERPRETER);
+        pushInt(index);
+        load(method);
+        load(object);
+        array(call.arguments);
+        pushInt(tail ? 1 : 0);
+        helper("callMethod", "(" + OBJECT + "I" + OBJECT + OBJECT + "[" + OBJECT + "Z)" + OBJECT);
+        code.branch(0xa7, 0, end); // goto
+
+        code.setStackDepth(code.stackDepth() - 1);
+        code.mark(property);
+        code.op(0x2a, 1); // aload_0
+        load(INTERPRETER);
+        pushInt(index);
+        code.op(0x2a, 1); // aload_0
+        load(INTERPRETER);
+        pushInt(index);
+        load(object);
+        helper("property", "(" + OBJECT + "I" + OBJECT + ")" + OBJECT);
+        array(call.arguments);
+        pushInt(tail ? 1 : 0);
+        helper("call", "(" + OBJECT + "I" + OBJECT + "[" + OBJECT + "Z)" + OBJECT);
+        code.mark(end);
+
+        maxLocals = Math.max(maxLocals, nextLocal);
+        nextLocal = locals;
+    }
+}
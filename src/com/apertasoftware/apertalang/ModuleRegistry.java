@@ -0,0 +1,235 @@
+package com.apertasoftware.apertalang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The files loaded by ~include and ~reference, keyed by canonical path so each one is only parsed and resolved once.
+ * A file is checked again on every load, if its size or modified time changed it's hashed and only reloaded when the contents really differ.
+ */
+class ModuleRegistry {
+    /**
+     * One loaded file, its statements are already optimized and resolved as top-level code so they can be run again as they are.
+     */
+    static final class Module {
+        final Path path;
+        final String hash;
+        final List<Stmt> statements;
+        long modified;
+        long size;
+        // Compiled the first time the VM runs the module.
+        VMFunction script = null;
+
+        Module(Path path, String hash, List<Stmt> statements, long modified, long size) {
+            this.path = path;
+            this.hash = hash;
+            this.statements = statements;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Map<Path, Module> modules = new HashMap<>();
+
+    /**
+     * @param interpreter - Used by the Optimizer to fold constants, modules can be run by any interpreter sharing this registry.
+     */
+    ModuleRegistry(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Finds a file's module, parsing and resolving it if it's new or changed since the last load.
+     * @param file - The path as written in the directive.
+     * @return - The module.
+     * @throws IOException - If the file can't be read.
+     */
+    synchronized Module load(String file) throws IOException {
+        Path path = Paths.get(file).toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        Module module = modules.get(path);
+        if (module != null && module.modified == modified && module.size == attributes.size()) return module;
+
+        ByteBuffer bytes = AstCache.map(path);
+        String hash = AstCache.hash(bytes);
+        if (module != null && module.hash.equals(hash)) {
+            // Touched but not changed.
+            module.modified = modified;
+            module.size = attributes.size();
+            return module;
+        }
+
+        if (module != null) ApertaLang.verbose("Reloading changed module " + path + ".");
+        return install(path, hash, AstCache.load(file, bytes, hash), modified, attributes.size());
+    }
+
+    private synchronized Module install(Path path, String hash, List<Stmt> parsed, long modified, long size) {
+        List<Stmt> statements = new Optimizer(interpreter).optimize(parsed);
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+
+        Module module = new Module(path, hash, statements, modified, size);
+        modules.put(path, module);
+        return module;
+    }
+
+    private synchronized boolean isCurrent(Path path, BasicFileAttributes attributes) {
+        Module module = modules.get(path);
+        return module != null && module.modified == attributes.lastModifiedTime().toMillis() && module.size == attributes.size();
+    }
+
+    /**
+     * A file parsed by preload that hasn't been resolved yet.
+     */
+    private static final class Parsed {
+        final Path path;
+        final String hash;
+        final List<Stmt> statements;
+        final long modified;
+        final long size;
+        final List<Path> dependencies;
+        // Set when the file has syntax errors, it isn't installed so the directive loads it again and reports them if it ever runs.
+        final boolean broken;
+
+        Parsed(Path path, String hash, List<Stmt> statements, long modified, long size, List<Path> dependencies, boolean broken) {
+            this.path = path;
+            this.broken = broken;
+            this.hash = hash;
+            this.statements = statements;
+            this.modified = modified;
+            this.size = size;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * Finds every file the statements include or reference, directly or through other files, and scans and parses them all in parallel.
+     * They're then resolved and registered in dependency order, so the directives find their modules ready when they run.
+     * Files that can't be read or don't parse are skipped here, the directive reports the error when it runs like before.
+     * @param statements - The parsed statements of the main script.
+     */
+    void preload(List<Stmt> statements) {
+        List<Path> roots = paths(directives(statements));
+        if (roots.isEmpty()) return;
+
+        Map<Path, Parsed> parsed = new ConcurrentHashMap<>();
+        Set<Path> claimed = ConcurrentHashMap.newKeySet();
+        ForkJoinPool.commonPool().invoke(new ParseTask(roots, parsed, claimed));
+
+        Set<Path> linked = new HashSet<>();
+        for (Path root : roots) link(root, parsed, linked);
+        ApertaLang.verbose("Preloaded " + parsed.size() + " module(s).");
+    }
+
+    private void link(Path path, Map<Path, Parsed> parsed, Set<Path> linked) {
+        Parsed file = parsed.get(path);
+        if (file == null || !linked.add(path)) return;
+
+        for (Path dependency : file.dependencies) link(dependency, parsed, linked);
+        if (file.broken) return;
+        install(file.path, file.hash, file.statements, file.modified, file.size);
+    }
+
+    /**
+     * Parses one file and then forks a task for each file it pulls in, or forks one task per file when given several.
+     */
+    private final class ParseTask extends RecursiveAction {
+        private final List<Path> paths;
+        private final Map<Path, Parsed> parsed;
+        private final Set<Path> claimed;
+
+        ParseTask(List<Path> paths, Map<Path, Parsed> parsed, Set<Path> claimed) {
+            this.paths = paths;
+            this.parsed = parsed;
+            this.claimed = claimed;
+        }
+
+        @Override
+        protected void compute() {
+            if (paths.size() > 1) {
+                List<ParseTask> tasks = new ArrayList<>();
+                for (Path path : paths) tasks.add(new ParseTask(Collections.singletonList(path), parsed, claimed));
+                invokeAll(tasks);
+                return;
+            }
+
+            Path path = paths.get(0);
+            if (!claimed.add(path)) return;
+
+            // Each file's errors are kept to itself, they're only reported if the directive that needs the file runs.
+            ApertaEngine.Collector errors = new ApertaEngine.Collector();
+            ErrorReporter previous = ApertaLang.setReporter(errors);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (isCurrent(path, attributes)) return;
+
+                ByteBuffer bytes = AstCache.map(path);
+                String hash = AstCache.hash(bytes);
+                List<Stmt> statements = AstCache.load(path.toString(), bytes, hash);
+                List<Path> dependencies = paths(directives(statements));
+                parsed.put(path, new Parsed(path, hash, statements, attributes.lastModifiedTime().toMillis(), attributes.size(), dependencies, !errors.errors.isEmpty()));
+
+                if (!dependencies.isEmpty()) new ParseTask(dependencies, parsed, claimed).invoke();
+            } catch (IOException e) {
+                ApertaLang.verbose("Couldn't preload " + path + ": " + e);
+            } finally {
+                ApertaLang.setReporter(previous);
+            }
+        }
+    }
+
+    private static List<Path> paths(List<String> files) {
+        List<Path> paths = new ArrayList<>();
+        for (String file : files) {
+            try {
+                paths.add(Paths.get(file).toRealPath());
+            } catch (IOException e) {
+                // Left for the directive to report when it runs.
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Collects the file names of every ~include and ~reference in some statements, including ones nested in blocks, loops, functions and classes.
+     * Directives inside lambdas aren't found, those files are loaded when the directive runs.
+     */
+    private static List<String> directives(List<? extends Stmt> statements) {
+        List<String> files = new ArrayList<>();
+        collect(statements, files);
+        return files;
+    }
+
+    private static void collect(List<? extends Stmt> statements, List<String> files) {
+        for (Stmt statement : statements) collect(statement, files);
+    }
+
+    private static void collect(Stmt stmt, List<String> files) {
+        if (stmt instanceof Stmt.Preproc) {
+            Object file = ((Stmt.Preproc)stmt).value.literal;
+            if (file instanceof String) files.add((String)file);
+        } else if (stmt instanceof Stmt.Block) {
+            collect(((Stmt.Block)stmt).statements, files);
+        } else if (stmt instanceof Stmt.Function) {
+            collect(((Stmt.Function)stmt).body, files);
+        } else if (stmt instanceof Stmt.Class) {
+            collect(((Stmt.Class)stmt).methods, files);
+        } else if (stmt instanceof Stmt.If) {
+            collect(((Stmt.If)stmt).thenBranch, files);
+            collect(((Stmt.If)stmt).elseBranch, files);
+        } else if (stmt instanceof Stmt.While) {
+            collect(((Stmt.While)stmt).body, files);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * The instruction set used by the Compiler and the VM.
+ * Operands follow the opcode in the chunk, u8 is one byte and u16 is two bytes (big endian).
+ */
+final class OpCode {
+    static final byte CONSTANT       = 0;  // u16 constant index
+    static final byte NIL            = 1;
+    static final byte TRUE           = 2;
+    static final byte FALSE          = 3;
+    static final byte POP            = 4;
+    static final byte GET_LOCAL      = 5;  // u8 slot
+    static final byte SET_LOCAL      = 6;  // u8 slot
+    static final byte GET_GLOBAL     = 7;  // u16 name token
+    static final byte DEFINE_GLOBAL  = 8;  // u16 name token
+    static final byte SET_GLOBAL     = 9;  // u16 name token
+    static final byte GET_UPVALUE    = 10; // u8 upvalue index
+    static final byte SET_UPVALUE    = 11; // u8 upvalue index
+    static final byte GET_PROPERTY   = 12; // u16 name token
+    static final byte SET_PROPERTY   = 13; // u16 name token
+    static final byte GET_SUPER      = 14; // u16 method token
+    static final byte EQUAL          = 15;
+    static final byte NOT_EQUAL      = 16;
+    static final byte GREATER        = 17;
+    static final byte GREATER_EQUAL  = 18;
+    static final byte LESS           = 19;
+    static final byte LESS_EQUAL     = 20;
+    static final byte ADD            = 21;
+    static final byte SUBTRACT       = 22;
+    static final byte MULTIPLY       = 23;
+    static final byte DIVIDE         = 24;
+    static final byte NOT            = 25;
+    static final byte NEGATE         = 26;
+    static final byte PRINT          = 27;
+    static final byte JUMP           = 28; // u16 forward offset
+    static final byte JUMP_IF_FALSE  = 29; // u16 forward offset, leaves the condition on the stack
+    static final byte JUMP_IF_TRUE   = 30; // u16 forward offset, leaves the condition on the stack
+    static final byte LOOP           = 31; // u16 backward offset
+    static final byte CALL           = 32; // u8 argument count
+    static final byte CLOSURE        = 33; // u16 function constant, then (u8 isLocal, u8 index) per upvalue
+    static final byte CLOSE_UPVALUE  = 34;
+    static final byte RETURN         = 35;
+    static final byte CLASS          = 36; // u16 name token, u8 method count
+    static final byte ARRAY          = 37; // u16 element count
+    static final byte PREPROC        = 38; // u16 Stmt.Preproc constant
+    static final byte INVOKE         = 39; // u16 method token, u8 argument count
+    static final byte ARRAY_CONSTANT = 40; // u16 constant index of a pre-built array
+    static final byte GET_INDEX      = 41;
+    static final byte SET_INDEX      = 42;
+
+    private OpCode() {}
+}
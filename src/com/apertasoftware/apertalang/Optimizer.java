@@ -0,0 +1,280 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pass that runs between the Parser and the Resolver and simplifies the tree before anything else looks at it.
+ * Folds operators on constants, drops if branches and while loops whose condition is a constant, and builds constant array literals once.
+ * Folding uses the Interpreter's own operators, so a folded result is exactly what running the code would give.
+ * Anything that would be a runtime error is left alone so the error still happens when (and if) the code runs.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Interpreter interpreter;
+    private int folded = 0;
+    private int branchesRemoved = 0;
+    private int loopsRemoved = 0;
+    private int arraysBuilt = 0;
+
+    Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Optimizes a list of statements.
+     * @param statements - The statements straight out of the Parser.
+     * @return - The optimized statements, ready for the Resolver.
+     */
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = optimizeAll(statements);
+        ApertaLang.verbose("Optimizer folded " + folded + " expression(s), removed " + branchesRemoved
+                + " constant branch(es) and " + loopsRemoved + " dead loop(s), pre-built " + arraysBuilt + " array literal(s).");
+        return result;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            // The Parser leaves a null where a statement had a syntax error.
+            if (statement == null) continue;
+            Stmt optimized = optimize(statement);
+            if (!isEmpty(optimized)) result.add(optimized);
+        }
+        return result;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<Expr> optimizeExprs(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            result.add(optimize(expr));
+        }
+        return result;
+    }
+
+    private Stmt.Function optimizeFunction(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, stmt.returnType, stmt.parameters, optimizeAll(stmt.body));
+    }
+
+    /**
+     * A statement that was optimized away entirely, represented as an empty block so it can still sit in a branch.
+     */
+    private static Stmt empty() {
+        return new Stmt.Block(new ArrayList<Stmt>());
+    }
+
+    private static boolean isEmpty(Stmt stmt) {
+        return stmt instanceof Stmt.Block && ((Stmt.Block)stmt).statements.isEmpty();
+    }
+
+    private static boolean isConstant(Expr expr) {
+        if (!(expr instanceof Expr.Literal)) return false;
+        Object value = ((Expr.Literal)expr).value;
+        return value == null || value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimizeAll(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(optimizeFunction(method));
+        }
+        return new Stmt.Class(stmt.name, optimize(stmt.superclass), methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return optimizeFunction(stmt);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isConstant(condition)) {
+            branchesRemoved++;
+            Stmt branch = Interpreter.isTruthy(((Expr.Literal)condition).value) ? stmt.thenBranch : stmt.elseBranch;
+            return branch == null ? empty() : optimize(branch);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, optimize(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPreprocStmt(Stmt.Preproc stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isConstant(condition) && !Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            loopsRemoved++;
+            return empty();
+        }
+        return new Stmt.While(condition, optimize(stmt.body));
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        List<Expr> objects = optimizeExprs(expr.objects);
+        Expr.Array array = new Expr.Array(objects);
+
+        Object[] constant = new Object[objects.size()];
+        for (int i = 0; i < constant.length; i++) {
+            Expr object = objects.get(i);
+            if (isConstant(object)) {
+                constant[i] = ((Expr.Literal)object).value;
+            } else if (object instanceof Expr.Array && ((Expr.Array)object).constant != null) {
+                constant[i] = ((Expr.Array)object).constant;
+            } else {
+                return array;
+            }
+        }
+
+        // Nested arrays were already counted when their own literal was built.
+        arraysBuilt++;
+        array.constant = constant;
+        return array;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        Expr.Binary binary = new Expr.Binary(left, expr.operator, right);
+        if (!isConstant(left) || !isConstant(right)) return binary;
+
+        try {
+            Object value = interpreter.binaryGeneric(binary, ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            folded++;
+            return new Expr.Literal(value);
+        } catch (RuntimeError error) {
+            return binary;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(optimize(expr.callee), expr.paren, optimizeExprs(expr.arguments));
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = optimize(expr.expression);
+        if (isConstant(inner)) return inner;
+        return new Expr.Grouping(inner);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        return new Expr.Index(optimize(expr.object), expr.bracket, optimize(expr.index));
+    }
+
+    @Override
+    public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+        return new Expr.IndexSet(optimize(expr.object), expr.bracket, optimize(expr.index), optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (!isConstant(left)) return new Expr.Logical(left, expr.operator, right);
+
+        // The left side decides whether the right side runs at all, so it can go either way even if the right side isn't constant.
+        folded++;
+        boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+        if (expr.operator.type == TokenType.OR) {
+            return truthy ? left : right;
+        }
+        return truthy ? right : left;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        Expr.Unary unary = new Expr.Unary(expr.operator, right);
+        if (!isConstant(right)) return unary;
+
+        try {
+            Object value = interpreter.unaryGeneric(unary, ((Expr.Literal)right).value);
+            folded++;
+            return new Expr.Literal(value);
+        } catch (RuntimeError error) {
+            return unary;
+        }
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        return new Expr.Lambda(expr.parameters, optimizeAll(expr.body));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -0,0 +1,146 @@
+package com.apertasoftware.apertalang;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Where print goes. Text is gathered in one big buffer and handed to the Writer in large pieces instead of locking and flushing System.out on every print.
+ * With the LINE policy every printed line is flushed straight away, which is what a terminal wants, with BUFFERED it's only written out
+ * once the buffer fills up or when the program is done.
+ * The policy is picked with apertalang.output.flush ("line" or "buffered") and the buffer size with apertalang.output.buffer,
+ * without them a terminal gets LINE and everything else BUFFERED.
+ */
+class OutputSink {
+    enum Flush { LINE, BUFFERED }
+
+    static final int BUFFER_SIZE = Math.max(64, Integer.getInteger("apertalang.output.buffer", 64 * 1024));
+
+    private final Writer target;
+    private final Flush policy;
+    private final char[] buffer;
+    private int count = 0;
+
+    OutputSink(Writer target, Flush policy) {
+        this.target = target;
+        this.policy = policy;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * A sink writing to System.out with the configured policy.
+     */
+    static OutputSink stdout() {
+        String flush = System.getProperty("apertalang.output.flush");
+        Flush policy;
+        if ("line".equals(flush)) {
+            policy = Flush.LINE;
+        } else if ("buffered".equals(flush)) {
+            policy = Flush.BUFFERED;
+        } else {
+            policy = System.console() != null ? Flush.LINE : Flush.BUFFERED;
+        }
+        return new OutputSink(new OutputStreamWriter(System.out), policy);
+    }
+
+    synchronized void printLine(String text) {
+        append(text);
+        endLine();
+    }
+
+    synchronized void printLine(double number) {
+        append(number);
+        endLine();
+    }
+
+    /**
+     * Writes out everything that's buffered.
+     */
+    synchronized void flush() {
+        try {
+            if (count > 0) target.write(buffer, 0, count);
+            target.flush();
+        } catch (IOException e) {
+            // Same as System.out, there's nothing a script could do about its output going away.
+        } finally {
+            count = 0;
+        }
+    }
+
+    private void endLine() {
+        if (count == buffer.length) flush();
+        buffer[count++] = '\n';
+        if (policy == Flush.LINE) flush();
+    }
+
+    private void append(String text) {
+        int length = text.length();
+        if (length > buffer.length - count) {
+            flush();
+            if (length > buffer.length) {
+                try {
+                    target.write(text);
+                } catch (IOException e) {
+                    // Dropped, see flush.
+                }
+                return;
+            }
+        }
+        text.getChars(0, length, buffer, count);
+        count += length;
+    }
+
+    /**
+     * Writes a number the way stringify would, but whole numbers go straight into the buffer digit by digit without making a String.
+     */
+    private void append(double number) {
+        if (!isSmallWhole(number)) {
+            append(format(number));
+            return;
+        }
+
+        // A long has at most 20 characters with its sign.
+        if (buffer.length - count < 20) flush();
+        long value = (long)number;
+        if (value < 0 || Double.doubleToRawLongBits(number) == Long.MIN_VALUE) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+
+        int end = count + digits(value);
+        for (int i = end - 1; i >= count; i--) {
+            buffer[i] = (char)('0' + value % 10);
+            value /= 10;
+        }
+        count = end;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Whole numbers Double.toString would still print without an exponent, everything past that keeps its usual formatting.
+     */
+    private static boolean isSmallWhole(double number) {
+        return number > -1e7 && number < 1e7 && number == (long)number;
+    }
+
+    /**
+     * Turns a number into the text ApertaLang prints for it, Double.toString without the trailing ".0" on whole numbers.
+     * @param number - The number.
+     * @return - Its text.
+     */
+    static String format(double number) {
+        if (isSmallWhole(number)) {
+            return Double.doubleToRawLongBits(number) == Long.MIN_VALUE ? "-0" : Long.toString((long)number);
+        }
+
+        return Double.toString(number);
+    }
+}
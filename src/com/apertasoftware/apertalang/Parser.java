@@ -12,10 +12,12 @@ import static com.apertasoftware.apertalang.TokenType.*;
 class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
     private int current = 0;
+    // Set when this parser reports an error, unlike ApertaLang.hadError it only covers this one file.
+    boolean hadError = false;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenBuffer tokens) {
         this.tokens = tokens;
     }
 
@@ -46,7 +48,7 @@ class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect class name.");
+        Token name = consumeToken(IDENTIFIER, "Expect class name.");
 
         Expr superclass = null;
         if (match(LESS)) {
@@ -161,7 +163,7 @@ class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        Token name = consumeToken(IDENTIFIER, "Expect variable name.");
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -188,7 +190,7 @@ class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        Token name = consumeToken(IDENTIFIER, "Expect " + kind + " name.");
         consume(LEFT_BRACK, "Expected '[' after " + kind + " name.");
         Token returnType = null;
         if(!check(RIGHT_BRACK)) {
@@ -206,7 +208,7 @@ class Parser {
                     error(peek(), "Cannot have more than 8 parameters.");
                 }
 
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                parameters.add(consumeToken(IDENTIFIER, "Expect parameter name."));
             } while (match(COMMA));
         }
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
@@ -225,7 +227,7 @@ class Parser {
                     error(peek(), "Cannot have more than 8 parameters.");
                 }
 
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                parameters.add(consumeToken(IDENTIFIER, "Expect parameter name."));
             } while (match(COMMA));
         }
         consume(RIGHT_PAREN, "Expect ')' after lambda parameters.");
@@ -263,6 +265,9 @@ class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -367,7 +372,7 @@ class Parser {
             } while (match(COMMA));
         }
 
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = consumeToken(RIGHT_PAREN, "Expect ')' after arguments.");
 
         return new Expr.Call(callee, paren, arguments);
     }
@@ -379,12 +384,13 @@ class Parser {
             if (match(LEFT_PAREN)) {
                 expr = finishCall(expr);
             } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                Token name = consumeToken(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
             } else if (match(LEFT_BRACK)) {
-                Token index = consume(NUMBER, "Expect number after '['.");
-                expr = new Expr.Get(expr, index);
+                Token bracket = previous();
+                Expr index = expression();
                 consume(RIGHT_BRACK, "Expect ']' after array index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -421,7 +427,7 @@ class Parser {
         if (match(SUPER)) {
             Token keyword = previous();
             consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER, "Expect superclass method name.");
+            Token method = consumeToken(IDENTIFIER, "Expect superclass method name.");
             return new Expr.Super(keyword, method);
         }
 
@@ -451,35 +457,47 @@ class Parser {
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
+    /**
+     * Same as consume, but also hands back the token for when it goes into the AST.
+     */
+    private Token consumeToken(TokenType type, String message) {
+        consume(type, message);
+        return previous();
+    }
+
     private boolean check(TokenType tokenType) {
         if (isAtEnd()) return false;
-        return peek().type == tokenType;
+        return tokens.type(current) == tokenType;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
+    // peek and previous make a Token object, so they're only used for tokens that end up in the AST or an error.
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
+        hadError = true;
         ApertaLang.error(token, message);
         return new ParseError();
     }
@@ -488,9 +506,9 @@ class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
+            if (tokens.type(current - 1) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUNC:
                 case VAR:
@@ -0,0 +1,75 @@
+package com.apertasoftware.apertalang;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A script compiled by an ApertaEngine, ready to be run as many times as needed without being parsed again.
+ */
+public final class PreparedScript {
+    private final List<Stmt> statements;
+    private final ModuleRegistry modules;
+    private final List<ApertaError> warnings;
+
+    PreparedScript(List<Stmt> statements, ModuleRegistry modules, List<ApertaError> warnings) {
+        this.statements = statements;
+        this.modules = modules;
+        this.warnings = Collections.unmodifiableList(new ArrayList<>(warnings));
+    }
+
+    /**
+     * Warnings found while compiling, things that are probably mistakes but didn't stop the script from compiling.
+     */
+    public List<ApertaError> warnings() {
+        return warnings;
+    }
+
+    public ScriptResult run() {
+        return run(Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Runs the script with a fresh set of globals.
+     * @param bindings - Extra globals to define before the script runs, converted to ApertaLang values.
+     * @return - The script's globals and any runtime error.
+     */
+    public ScriptResult run(Map<String, ?> bindings) {
+        return run(bindings, OutputSink.stdout());
+    }
+
+    /**
+     * Runs the script with a fresh set of globals, sending what it prints to a Writer instead of stdout.
+     * @param bindings - Extra globals to define before the script runs, converted to ApertaLang values.
+     * @param out - Where print goes, flushed once the script is done.
+     * @return - The script's globals and any runtime error.
+     */
+    public ScriptResult run(Map<String, ?> bindings, Writer out) {
+        return run(bindings, new OutputSink(out, OutputSink.Flush.BUFFERED));
+    }
+
+    private ScriptResult run(Map<String, ?> bindings, OutputSink out) {
+        Interpreter interpreter = new Interpreter(modules, out);
+        ApertaEngine.Collector errors = new ApertaEngine.Collector();
+        ErrorReporter previous = ApertaLang.setReporter(errors);
+        try {
+            // Everything defined before the bindings is a builtin, the result leaves those out.
+            Set<String> builtins = new HashSet<>(interpreter.globals.names());
+            for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+                interpreter.globals.define(binding.getKey(), ApertaEngine.toAperta(binding.getValue()));
+            }
+
+            interpreter.interpret(statements);
+            if (errors.errors.isEmpty()) interpreter.runEvents();
+            return new ScriptResult(interpreter, builtins, errors.errors);
+        } finally {
+            interpreter.closeFiles();
+            out.flush();
+            ApertaLang.setReporter(previous);
+        }
+    }
+}
@@ -1,20 +1,56 @@
 package com.apertasoftware.apertalang;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 
 /**
  * Class that resolves any variables or whateves for the Interpreter.
  */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    /**
+     * A local variable in a scope, the slot matches the order the Interpreter defines variables at runtime.
+     */
+    private static class Binding {
+        final int slot;
+        boolean defined = false;
+
+        Binding(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * The locals of one scope keyed by SymbolTable ID, scopes are small so a linear search beats hashing.
+     */
+    private static class Scope {
+        private int[] symbols = new int[8];
+        private Binding[] bindings = new Binding[8];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        Binding get(int symbol) {
+            for (int i = 0; i < size; i++) {
+                if (symbols[i] == symbol) return bindings[i];
+            }
+            return null;
+        }
+
+        void put(int symbol, Binding binding) {
+            if (size == symbols.length) {
+                symbols = Arrays.copyOf(symbols, size * 2);
+                bindings = Arrays.copyOf(bindings, size * 2);
+            }
+            symbols[size] = symbol;
+            bindings[size] = binding;
+            size++;
+        }
     }
 
     private enum FunctionType {
@@ -58,15 +94,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super", true);
+            defineSynthetic(SymbolTable.SUPER);
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        defineSynthetic(SymbolTable.THIS);
 
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.symbol == SymbolTable.INIT) {
                 declaration = FunctionType.INITIALIZER;
             }
             resolveFunction(method, declaration);
@@ -133,6 +169,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 ApertaLang.error(stmt.keyword, "Cannot return a value from an initializer.");
             }
             resolve(stmt.value);
+
+            // The call is the last thing the function does, so it can be made after the function has returned.
+            if (stmt.value instanceof Expr.Call && currentFunction != FunctionType.INITIALIZER) {
+                ((Expr.Call)stmt.value).tailCall = true;
+            }
         }
 
         return null;
@@ -166,7 +207,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveDepth(expr.name);
+        expr.slot = resolveSlot(expr.name, expr.depth);
         return null;
     }
 
@@ -200,6 +242,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -227,7 +284,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             ApertaLang.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveDepth(expr.keyword);
         return null;
     }
 
@@ -237,7 +294,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             ApertaLang.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveDepth(expr.keyword);
         return null;
     }
 
@@ -249,11 +306,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            ApertaLang.error(expr.name, "Cannot read local variable in its own initializer.");
+        if (!scopes.isEmpty()) {
+            Binding binding = scopes.peek().get(expr.name.symbol);
+            if (binding != null && !binding.defined) {
+                ApertaLang.error(expr.name, "Cannot read local variable in its own initializer.");
+            }
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveDepth(expr.name);
+        expr.slot = resolveSlot(expr.name, expr.depth);
         return null;
     }
 
@@ -294,7 +355,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope());
     }
 
     private void endScope() {
@@ -304,25 +365,43 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme)) {
+        Scope scope = scopes.peek();
+        if(scope.get(name.symbol) != null) {
             ApertaLang.error(name, "Variable with this name already declared in this scope.");
+            return;
         }
 
-        scope.put(name.lexeme, false);
+        scope.put(name.symbol, new Binding(scope.size()));
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.symbol).defined = true;
+    }
+
+    private void defineSynthetic(int name) {
+        Binding binding = new Binding(scopes.peek().size());
+        binding.defined = true;
+        scopes.peek().put(name, binding);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /**
+     * Works out how many scopes up a local variable lives, the result is stored right on the node for the Interpreter.
+     * @param name - Name of the variable.
+     * @return - The number of scopes between the use and the declaration, or -1 if it's a global.
+     */
+    private int resolveDepth(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).get(name.symbol) != null) {
+                return scopes.size() - 1 - i;
             }
         }
+
+        return -1;
+    }
+
+    private int resolveSlot(Token name, int depth) {
+        if (depth == -1) return -1;
+        return scopes.get(scopes.size() - 1 - depth).get(name.symbol).slot;
     }
 }
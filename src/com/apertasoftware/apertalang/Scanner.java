@@ -1,21 +1,26 @@
 package com.apertasoftware.apertalang;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import static com.apertasoftware.apertalang.TokenType.*;
 
 /**
  * Tokenizes the source code to be parsed by the the Parser.
+ * Works straight off any CharSequence, so a file can be scanned from a mapped buffer without turning it into a String first.
+ * Tokens go into a TokenBuffer, names go through the SymbolTable and the only strings made are for string literals.
  */
 class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSequence source;
+    private final int length;
+    private final SymbolTable symbols = new SymbolTable();
+    private final TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private int lineStart = 0;
+    // Set when this scanner reports an error, unlike ApertaLang.hadError it only covers this one file.
+    boolean hadError = false;
     private static final Map<String, TokenType> keywords;
 
     static {
@@ -43,18 +48,21 @@ class Scanner {
         keywords.put("hidden", HIDDEN);
     }
 
-    Scanner(String source) {
+    Scanner(CharSequence source) {
         this.source = source;
+        this.length = source.length();
+        this.tokens = new TokenBuffer(source, symbols);
     }
 
-    List<Token> scanTokens() {
+    TokenBuffer scanTokens() {
 
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        start = current;
+        addToken(EOF);
         return tokens;
     }
 
@@ -75,7 +83,13 @@ class Scanner {
             case ':': addToken(COLON); break;
             case '*': addToken(STAR); break;
             case '~': addToken(PREPROC); break;
-            case '!': addToken(match('=') ? BANG_EQUAL : BANG); break;
+            case '!':
+                if (match('=')) {
+                    addToken(BANG_EQUAL);
+                } else {
+                    addToken(BANG);
+                }
+                break;
             case '=':
                 if(match('=')) {
                     addToken(EQUAL_EQUAL);
@@ -85,8 +99,20 @@ class Scanner {
                     addToken(EQUAL);
                 }
                 break;
-            case '<': addToken(match('=') ? LESS_EQUAL : LESS); break;
-            case '>': addToken(match('=') ? GREATER_EQUAL : GREATER); break;
+            case '<':
+                if (match('=')) {
+                    addToken(LESS_EQUAL);
+                } else {
+                    addToken(LESS);
+                }
+                break;
+            case '>':
+                if (match('=')) {
+                    addToken(GREATER_EQUAL);
+                } else {
+                    addToken(GREATER);
+                }
+                break;
             case '/':
                 if(match('/')) {
                     while (peek() != '\n' && !isAtEnd()) advance();
@@ -97,8 +123,8 @@ class Scanner {
                             advance();
                             break;
                         } else {
-                            if (peek() == '\n') line++;
                             advance();
+                            if (source.charAt(current - 1) == '\n') newLine();
                         }
                     }
                 } else {
@@ -112,7 +138,7 @@ class Scanner {
                 break;
 
             case '\n':
-                line++;
+                newLine();
                 break;
 
             case '"': string(); break;
@@ -125,7 +151,8 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    ApertaLang.error(line, "Unexpected character.");
+                    hadError = true;
+                    ApertaLang.error(line, start - lineStart + 1, "Unexpected character.");
                 }
                 break;
         }
@@ -135,11 +162,11 @@ class Scanner {
         while (isAlphaNumeric(peek())) advance();
 
         // See if the identifier is a reserved word.
-        String text = source.substring(start, current);
+        int symbol = symbols.id(source, start, current);
 
-        TokenType type = keywords.get(text);
+        TokenType type = keywords.get(symbols.name(symbol));
         if (type == null) type = IDENTIFIER;
-        addToken(type);
+        addToken(type, symbol);
     }
 
     private void number() {
@@ -151,27 +178,43 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+        double value = Double.parseDouble(source.subSequence(start, current).toString());
+        addToken(NUMBER, tokens.addLiteral(value));
     }
 
     private void string() {
         char prev = source.charAt(current-1);
+        int startLine = line;
+        int column = start - lineStart + 1;
         while (peek() != prev && !isAtEnd()) {
-            if (peek() == '\n') line++;
             if (peek() == '\\') advance();
             advance();
+            if (source.charAt(current - 1) == '\n') newLine();
         }
 
         if(isAtEnd()) {
-            ApertaLang.error(line,"Unterminated string.");
+            hadError = true;
+            ApertaLang.error(startLine, column, "Unterminated string.");
             return;
         }
 
         advance();
 
-        String value = source.substring(start + 1, current - 1).replaceAll("\\\\n", "\n");
-        addToken(STRING, value);
+        // Only \n is an escape, anything else after a backslash is kept as written.
+        int end = current - 1;
+        StringBuilder value = new StringBuilder(end - start - 1);
+        for (int i = start + 1; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '\\' && i + 1 < end && source.charAt(i + 1) == 'n') {
+                value.append('\n');
+                i++;
+            } else {
+                value.append(c);
+            }
+        }
+
+        // Only the unescaped value is kept, the lexeme is cut out of the source when the token is asked for.
+        tokens.add(STRING, start, current - start, line, column, tokens.addLiteral(value.toString()));
     }
 
     private boolean match(char expected) {
@@ -189,7 +232,7 @@ class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= length) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -206,7 +249,7 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
     }
 
     private char advance() {
@@ -214,12 +257,19 @@ class Scanner {
         return source.charAt(current - 1);
     }
 
+    private void newLine() {
+        line++;
+        lineStart = current;
+    }
+
+    /**
+     * Adds a token whose text never changes, the TokenBuffer knows its lexeme from the type alone.
+     */
     private void addToken(TokenType type) {
-        addToken(type, null);
+        addToken(type, SymbolTable.NONE);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type, int value) {
+        tokens.add(type, start, current - start, line, start - lineStart + 1, value);
     }
 }
@@ -0,0 +1,97 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What's left after a PreparedScript ran, its globals and the runtime error that stopped it if there was one.
+ * The functions the script defined can be called afterwards with call, from as many threads as needed.
+ */
+public final class ScriptResult {
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private final Set<String> builtins;
+    private final List<ApertaError> errors;
+
+    ScriptResult(Interpreter interpreter, Set<String> builtins, List<ApertaError> errors) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.builtins = builtins;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    public boolean succeeded() {
+        return errors.isEmpty();
+    }
+
+    public List<ApertaError> errors() {
+        return errors;
+    }
+
+    /**
+     * Looks up one of the script's globals.
+     * @param name - Name of the global.
+     * @return - Its value converted for Java, or null if it isn't defined.
+     */
+    public Object get(String name) {
+        return ApertaEngine.toJava(globals.getIfDefined(name));
+    }
+
+    /**
+     * Calls one of the script's functions. Every call gets its own execution context, so this is safe to use from several threads at once,
+     * they all see the same globals.
+     * @param function - Name of the global holding the function.
+     * @param arguments - Arguments to call it with, converted to ApertaLang values.
+     * @return - What the function returned converted for Java.
+     * @throws ApertaException - If there's no such function or it stopped with a runtime error.
+     */
+    public Object call(String function, Object... arguments) throws ApertaException {
+        ApertaEngine.Collector errors = new ApertaEngine.Collector();
+        ErrorReporter previous = ApertaLang.setReporter(errors);
+        Interpreter context = null;
+        Token name = new Token(TokenType.IDENTIFIER, function, null, 0);
+        try {
+            Object callee = globals.getIfDefined(function);
+            if (!(callee instanceof ApertaCallable)) {
+                throw new RuntimeError(name, "'" + function + "' is not a function.");
+            }
+            ApertaCallable callable = (ApertaCallable) callee;
+            if (callable.arity() != arguments.length) {
+                throw new RuntimeError(name, "Expected " + callable.arity() + " arguments but got " + arguments.length + ".");
+            }
+
+            List<Object> values = new ArrayList<>(arguments.length);
+            for (Object argument : arguments) values.add(ApertaEngine.toAperta(argument));
+            context = interpreter.fork();
+            Object result = callable.call(context, values);
+            context.events.run();
+            return ApertaEngine.toJava(result);
+        } catch (RuntimeError error) {
+            ApertaLang.runtimeError(error);
+            throw new ApertaException(errors.errors);
+        } catch (Error e) {
+            // A native function failing, the same as Interpreter.call turns it into a runtime error at the call.
+            ApertaLang.runtimeError(new RuntimeError(name, e.getMessage()));
+            throw new ApertaException(errors.errors);
+        } finally {
+            if (context != null) context.closeFiles();
+            interpreter.out.flush();
+            ApertaLang.setReporter(previous);
+        }
+    }
+
+    /**
+     * Every global the script or its bindings defined, leaving out the builtins.
+     */
+    public Map<String, Object> globals() {
+        Map<String, Object> values = new HashMap<>();
+        for (String name : globals.names()) {
+            if (!builtins.contains(name)) values.put(name, ApertaEngine.toJava(globals.getIfDefined(name)));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,68 @@
+package com.apertasoftware.apertalang;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hidden class describing which slot each field of an ApertaInstance lives in.
+ * Instances of the same class that get their fields added in the same order end up sharing one Shape,
+ * so a field access site can remember the last Shape it saw and skip the lookup next time.
+ */
+class Shape {
+    /**
+     * What a Get or Set site remembers about the last instance it touched.
+     * For a Set that added a field, 'after' is the shape the instance moved to, otherwise it's the same as 'before'.
+     */
+    static final class CacheEntry {
+        final Shape before;
+        final Shape after;
+        final int slot;
+
+        CacheEntry(Shape before, Shape after, int slot) {
+            this.before = before;
+            this.after = after;
+            this.slot = slot;
+        }
+    }
+
+    final int size;
+    private final Map<String, Integer> indices;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        this.size = 0;
+        this.indices = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name) {
+        this.size = parent.size + 1;
+        this.indices = new HashMap<>(parent.indices);
+        this.indices.put(name, parent.size);
+    }
+
+    /**
+     * Finds where a field is stored.
+     * @param name - Name of the field.
+     * @return - The slot of the field, or -1 if instances with this shape don't have it.
+     */
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Gets the shape an instance moves to when it gains a new field, reusing the same transition every time.
+     * @param name - Name of the new field.
+     * @return - The shape with the field added in the next slot.
+     */
+    Shape withField(String name) {
+        synchronized (transitions) {
+            Shape next = transitions.get(name);
+            if (next == null) {
+                next = new Shape(this, name);
+                transitions.put(name, next);
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.apertasoftware.apertalang;
+
+import java.util.Arrays;
+
+/**
+ * Gives every distinct name an int ID, so the front end can compare names with == instead of String.equals.
+ * Names are looked up straight from the source characters, a String is only made the first time a name is seen.
+ * Every Scanner and AST cache read has its own table, IDs only have to agree within one file since the Resolver resolves one file at a time.
+ * That way a table is only ever used by one thread and is thrown away with the file's tokens.
+ */
+final class SymbolTable {
+    static final int NONE = -1;
+    // Every table starts out with these, so they have the same ID everywhere.
+    static final int THIS = 0;
+    static final int SUPER = 1;
+    static final int INIT = 2;
+
+    private String[] names = new String[64];
+    private int[] table = new int[256];
+    private int count = 0;
+
+    SymbolTable() {
+        id("this");
+        id("super");
+        id("init");
+    }
+
+    /**
+     * The ID of a name that's the same in every table, for tokens made outside of any file.
+     * @param name - The name.
+     * @return - THIS, SUPER or INIT, or NONE for any other name.
+     */
+    static int reserved(String name) {
+        switch (name) {
+            case "this": return THIS;
+            case "super": return SUPER;
+            case "init": return INIT;
+            default: return NONE;
+        }
+    }
+
+    /**
+     * Looks up the ID of a name in the middle of some source code, adding it if it's new.
+     * @param source - The source code.
+     * @param start - Index of the first character of the name.
+     * @param end - Index just past the last character.
+     * @return - The name's ID.
+     */
+    int id(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = table.length - 1;
+        int index = mix(hash) & mask;
+        while (table[index] != 0) {
+            int id = table[index] - 1;
+            String name = names[id];
+            if (name.hashCode() == hash && matches(name, source, start, end)) return id;
+            index = (index + 1) & mask;
+        }
+
+        if (count == names.length) names = Arrays.copyOf(names, count * 2);
+        names[count] = source.subSequence(start, end).toString();
+        table[index] = ++count;
+        if (count * 2 > table.length) grow();
+        return count - 1;
+    }
+
+    int id(String name) {
+        return id(name, 0, name.length());
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < count; id++) {
+            int index = mix(names[id].hashCode()) & mask;
+            while (table[index] != 0) index = (index + 1) & mask;
+            table[index] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A call the Resolver found in tail position, returned instead of made so the function returning it can unwind first.
+ * The caller then makes the call in a loop, so tail recursive scripts run without growing the Java stack.
+ */
+class TailCall {
+    final Expr.Call call;
+    final ApertaCallable callee;
+    final ApertaInstance receiver;
+    final List<Object> arguments;
+
+    /**
+     * @param call - The call expression, used for errors.
+     * @param callee - What's being called.
+     * @param receiver - The instance when calling a method that hasn't been bound, otherwise null.
+     * @param arguments - The already evaluated arguments.
+     */
+    TailCall(Expr.Call call, ApertaCallable callee, ApertaInstance receiver, List<Object> arguments) {
+        this.call = call;
+        this.callee = callee;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Makes the call once, which might hand back yet another TailCall.
+     */
+    private Object make(Interpreter interpreter) {
+        try {
+            if (callee instanceof ApertaFunction) {
+                return ((ApertaFunction)callee).step(interpreter, receiver, arguments);
+            }
+            if (callee instanceof ApertaLambda) {
+                return ((ApertaLambda)callee).step(interpreter, arguments);
+            }
+            return callee.call(interpreter, arguments);
+        } catch (Error e) {
+            throw new RuntimeError(call.paren, e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps making tail calls until one of them produces an actual value.
+     * Every function along the way still has to check that value against its return type, innermost first, so they're kept in a list.
+     * A check either passes the value through, turns it into nil or fails, so only the innermost appearance of each function matters
+     * and the list never holds a function twice no matter how long the chain of calls gets.
+     * @param interpreter - Self explanatory.
+     * @param caller - The ApertaFunction or ApertaLambda that returned the first tail call.
+     * @param value - What the caller returned.
+     * @return - The final value.
+     */
+    static Object run(Interpreter interpreter, ApertaCallable caller, Object value) {
+        if (!(value instanceof TailCall)) return value;
+
+        List<ApertaCallable> pending = new ArrayList<>();
+        pending.add(caller);
+        while (value instanceof TailCall) {
+            TailCall tail = (TailCall)value;
+            value = tail.make(interpreter);
+            if (value instanceof TailCall) {
+                pending.remove(tail.callee);
+                pending.add(tail.callee);
+            }
+        }
+
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            ApertaCallable function = pending.get(i);
+            // Lambdas always give back nil.
+            value = function instanceof ApertaFunction ? ((ApertaFunction)function).checkReturn(value) : null;
+        }
+        return value;
+    }
+}
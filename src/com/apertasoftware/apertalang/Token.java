@@ -5,6 +5,8 @@ class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    final int column;
+    final int symbol;
 
     /**
      * The Token object used by nearly all parts of the interpreter.
@@ -12,12 +14,31 @@ class Token {
      * @param lexeme - The actual character(s) used to create the token.
      * @param literal - What the token actually resolves to, can only be a Number, Boolean, Null, or String.
      * @param line - The line the token was defined on in the Source Code.
+     * Tokens made this way don't come from a file and are never resolved, so only this, super and init get a symbol ID.
      */
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, 0, isName(type) ? SymbolTable.reserved(lexeme) : SymbolTable.NONE);
+    }
+
+    /**
+     * Used by the TokenBuffer when the Parser takes a token out of it.
+     * @param column - The column the token starts at, 0 if it isn't known.
+     * @param symbol - The SymbolTable ID of the token's name, or SymbolTable.NONE if it isn't a name.
+     */
+    Token(TokenType type, String lexeme, Object literal, int line, int column, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.column = column;
+        this.symbol = symbol;
+    }
+
+    /**
+     * Whether tokens of this type are names the Resolver looks up, and so need a symbol ID.
+     */
+    static boolean isName(TokenType type) {
+        return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
     }
 
     public String toString() {
@@ -0,0 +1,152 @@
+package com.apertasoftware.apertalang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.apertasoftware.apertalang.TokenType.*;
+
+/**
+ * The tokens of one source file, stored as parallel arrays instead of one Token object each.
+ * The Parser checks types straight from the arrays and only makes a Token for the ones it keeps in the AST.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+    private final SymbolTable symbols;
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    // The line in the high 32 bits and the column in the low ones.
+    private long[] positions = new long[256];
+    // A SymbolTable ID for names and keywords, or an index into literals for numbers and strings.
+    private int[] values = new int[256];
+    private final List<Object> literals = new ArrayList<>();
+    private int size = 0;
+
+    TokenBuffer(CharSequence source, SymbolTable symbols) {
+        this.source = source;
+        this.symbols = symbols;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a token, called by the Scanner.
+     * @param type - The type of the token.
+     * @param start - Where the token starts in the source.
+     * @param length - How many characters the token takes up.
+     * @param line - The line the token is on.
+     * @param column - The column the token starts at.
+     * @param value - The symbol ID or literal index, SymbolTable.NONE for everything else.
+     */
+    void add(TokenType type, int start, int length, int line, int column, int value) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        types[size] = (byte)type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        positions[size] = ((long)line << 32) | (column & 0xffffffffL);
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Keeps the value of a number or string literal, the result is passed to add as the token's value.
+     */
+    int addLiteral(Object literal) {
+        literals.add(literal);
+        return literals.size() - 1;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return (int)(positions[index] >>> 32);
+    }
+
+    int column(int index) {
+        return (int)positions[index];
+    }
+
+    /**
+     * Makes the Token object for one token, so it can go into the AST or an error message.
+     * @param index - Which token.
+     * @return - The token.
+     */
+    Token token(int index) {
+        TokenType type = type(index);
+        int value = values[index];
+
+        String lexeme;
+        Object literal = null;
+        int symbol = SymbolTable.NONE;
+        if (isLiteral(index)) {
+            literal = literals.get(value);
+            // The lexeme is the source text, quotes and escapes included, the unescaped string is only the literal.
+            lexeme = source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+        } else if (value != SymbolTable.NONE) {
+            symbol = value;
+            lexeme = symbols.name(value);
+        } else {
+            lexeme = lexeme(type);
+        }
+
+        return new Token(type, lexeme, literal, line(index), column(index), symbol);
+    }
+
+    /**
+     * STRING and NUMBER are also the types of the String and Number keywords, a literal starts with a digit or a quote though.
+     */
+    private boolean isLiteral(int index) {
+        TokenType type = type(index);
+        if (type != STRING && type != NUMBER) return false;
+        char c = source.charAt(starts[index]);
+        return c == '"' || c == '\'' || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * The text of the tokens that are always spelled the same way.
+     */
+    static String lexeme(TokenType type) {
+        switch (type) {
+            case LEFT_PAREN: return "(";
+            case RIGHT_PAREN: return ")";
+            case LEFT_BRACE: return "{";
+            case RIGHT_BRACE: return "}";
+            case COMMA: return ",";
+            case DOT: return ".";
+            case MINUS: return "-";
+            case PLUS: return "+";
+            case SEMICOLON: return ";";
+            case SLASH: return "/";
+            case STAR: return "*";
+            case LEFT_BRACK: return "[";
+            case RIGHT_BRACK: return "]";
+            case PREPROC: return "~";
+            case COLON: return ":";
+            case BANG: return "!";
+            case BANG_EQUAL: return "!=";
+            case EQUAL: return "=";
+            case EQUAL_EQUAL: return "==";
+            case GREATER: return ">";
+            case GREATER_EQUAL: return ">=";
+            case LESS: return "<";
+            case LESS_EQUAL: return "<=";
+            case LAMBDA: return "=>";
+            default: return "";
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * The executable half of an Expr.Unary, specializes itself the same way BinaryNode does.
+ */
+abstract class UnaryNode {
+    static final UnaryNode UNINITIALIZED = new Uninitialized();
+    static final UnaryNode GENERIC = new Generic();
+
+    abstract Object execute(Interpreter interpreter, Expr.Unary expr, Object right);
+
+    private static UnaryNode specialize(TokenType operator, Object right) {
+        if (operator == TokenType.MINUS && right instanceof Double) return NegateDouble.INSTANCE;
+        if (operator == TokenType.BANG && right instanceof Boolean) return NotBoolean.INSTANCE;
+        return GENERIC;
+    }
+
+    static Object deoptimize(Interpreter interpreter, Expr.Unary expr, Object right) {
+        expr.node = GENERIC;
+        return interpreter.unaryGeneric(expr, right);
+    }
+
+    /**
+     * Whether a site has only ever negated numbers, see BinaryNode.sawNumbers.
+     */
+    static boolean sawNumber(Expr.Unary expr) {
+        return expr.node == NegateDouble.INSTANCE;
+    }
+
+    private static class Uninitialized extends UnaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Unary expr, Object right) {
+            UnaryNode node = specialize(expr.operator.type, right);
+            expr.node = node;
+            return node.execute(interpreter, expr, right);
+        }
+    }
+
+    private static class Generic extends UnaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Unary expr, Object right) {
+            return interpreter.unaryGeneric(expr, right);
+        }
+    }
+
+    private static class NegateDouble extends UnaryNode {
+        static final NegateDouble INSTANCE = new NegateDouble();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Unary expr, Object right) {
+            if (right instanceof Double) return -(double)right;
+            return deoptimize(interpreter, expr, right);
+        }
+    }
+
+    private static class NotBoolean extends UnaryNode {
+        static final NotBoolean INSTANCE = new NotBoolean();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Unary expr, Object right) {
+            if (right instanceof Boolean) return !(boolean)right;
+            return deoptimize(interpreter, expr, right);
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package com.apertasoftware.apertalang;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stack based virtual machine that runs the bytecode made by the Compiler.
+ * It shares the Interpreter's globals, so everything in Globals and every ApertaClass/ApertaInstance behaves the same in both engines.
+ */
+class VM {
+    private static final int FRAMES_MAX = 4096;
+
+    private static class CallFrame {
+        VMClosure closure;
+        int ip;
+        int base;
+    }
+
+    private final Interpreter interpreter;
+    private Object[] stack = new Object[256];
+    private int stackTop = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private VMUpvalue openUpvalues = null;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    /**
+     * Runs a compiled script, reporting any runtime error the same way the Interpreter does.
+     * @param script - The function returned by Compiler.compile.
+     */
+    void interpret(VMFunction script) {
+        try {
+            call(new VMClosure(this, script, new VMUpvalue[0], null), null, new ArrayList<>());
+        } catch (RuntimeError error) {
+            ApertaLang.runtimeError(error);
+        }
+    }
+
+    /**
+     * Calls a closure from outside the dispatch loop, used by ApertaClass initializers and callbacks from Globals.
+     * @param closure - The closure to run.
+     * @param receiver - The instance for 'this' when calling a method, or null.
+     * @param arguments - Arguments already checked against the closure's arity.
+     * @return - Whatever the closure returns.
+     */
+    Object call(VMClosure closure, Object receiver, List<Object> arguments) {
+        int savedTop = stackTop;
+        int savedFrames = frameCount;
+        try {
+            push(receiver != null ? receiver : closure);
+            for (Object argument : arguments) {
+                push(argument);
+            }
+            callClosure(closure, arguments.size(), 0);
+            return run(savedFrames);
+        } catch (RuntimeError error) {
+            closeUpvalues(savedTop);
+            Arrays.fill(stack, savedTop, stackTop, null);
+            stackTop = savedTop;
+            frameCount = savedFrames;
+            throw error;
+        }
+    }
+
+    private Object run(int exitFrame) {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        try {
+            for (;;) {
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT:
+                        push(constants[readShort(code, ip)]);
+                        ip += 2;
+                        break;
+                    case OpCode.NIL: push(null); break;
+                    case OpCode.TRUE: push(true); break;
+                    case OpCode.FALSE: push(false); break;
+                    case OpCode.POP:
+                        stack[--stackTop] = null;
+                        break;
+                    case OpCode.GET_LOCAL:
+                        push(stack[base + (code[ip++] & 0xff)]);
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[stackTop - 1];
+                        break;
+                    case OpCode.GET_GLOBAL:
+                        push(interpreter.globals.get((Token)constants[readShort(code, ip)]));
+                        ip += 2;
+                        break;
+                    case OpCode.DEFINE_GLOBAL:
+                        interpreter.globals.define(((Token)constants[readShort(code, ip)]).lexeme, pop());
+                        ip += 2;
+                        break;
+                    case OpCode.SET_GLOBAL:
+                        interpreter.globals.assign((Token)constants[readShort(code, ip)], stack[stackTop - 1]);
+                        ip += 2;
+                        break;
+                    case OpCode.GET_UPVALUE: {
+                        VMUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        push(upvalue.open ? stack[upvalue.slot] : upvalue.closed);
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE: {
+                        VMUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        if (upvalue.open) {
+                            stack[upvalue.slot] = stack[stackTop - 1];
+                        } else {
+                            upvalue.closed = stack[stackTop - 1];
+                        }
+                        break;
+                    }
+                    case OpCode.GET_PROPERTY: {
+                        Token name = (Token)constants[readShort(code, ip)];
+                        ip += 2;
+                        stack[stackTop - 1] = getProperty(stack[stackTop - 1], name);
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        Token name = (Token)constants[readShort(code, ip)];
+                        ip += 2;
+                        Object value = pop();
+                        stack[stackTop - 1] = setProperty(stack[stackTop - 1], name, value);
+                        break;
+                    }
+                    case OpCode.GET_SUPER: {
+                        Token method = (Token)constants[readShort(code, ip)];
+                        ip += 2;
+                        ApertaClass superclass = (ApertaClass)pop();
+                        ApertaInstance object = (ApertaInstance)stack[stackTop - 1];
+                        ApertaFunction bound = superclass.findMethod(object, method.lexeme);
+                        if (bound == null) {
+                            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+                        }
+                        stack[stackTop - 1] = bound;
+                        break;
+                    }
+                    case OpCode.EQUAL: {
+                        Object right = pop();
+                        stack[stackTop - 1] = Interpreter.isEqual(stack[stackTop - 1], right);
+                        break;
+                    }
+                    case OpCode.NOT_EQUAL: {
+                        Object right = pop();
+                        stack[stackTop - 1] = !Interpreter.isEqual(stack[stackTop - 1], right);
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        stack[stackTop - 1] = (double)left > (double)right;
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        stack[stackTop - 1] = (double)left >= (double)right;
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        stack[stackTop - 1] = (double)left < (double)right;
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        stack[stackTop - 1] = (double)left <= (double)right;
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[stackTop - 1] = (double)left + (double)right;
+                        } else if (left instanceof String) {
+                            stack[stackTop - 1] = right instanceof String ? (String)left + (String)right : (String)left + interpreter.stringify(right);
+                        } else {
+                            throw new RuntimeError(errorToken(ip), "Operands must be two numbers or two strings.");
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        stack[stackTop - 1] = (double)left - (double)right;
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        stack[stackTop - 1] = (double)left * (double)right;
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        Object right = pop();
+                        Object left = stack[stackTop - 1];
+                        if (!(left instanceof Double && right instanceof Double)) throw operandsError(ip);
+                        if ((double)right == 0.0) throw new RuntimeError(errorToken(ip), "Can't divide by zero!");
+                        stack[stackTop - 1] = (double)left / (double)right;
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[stackTop - 1] = !Interpreter.isTruthy(stack[stackTop - 1]);
+                        break;
+                    case OpCode.NEGATE:
+                        if (!(stack[stackTop - 1] instanceof Double)) {
+                            throw new RuntimeError(errorToken(ip), "Operand must be a number.");
+                        }
+                        stack[stackTop - 1] = -(double)stack[stackTop - 1];
+                        break;
+                    case OpCode.PRINT:
+                        interpreter.print(pop());
+                        break;
+                    case OpCode.JUMP:
+                        ip += readShort(code, ip) + 2;
+                        break;
+                    case OpCode.JUMP_IF_FALSE:
+                        if (!Interpreter.isTruthy(stack[stackTop - 1])) {
+                            ip += readShort(code, ip);
+                        }
+                        ip += 2;
+                        break;
+                    case OpCode.JUMP_IF_TRUE:
+                        if (Interpreter.isTruthy(stack[stackTop - 1])) {
+                            ip += readShort(code, ip);
+                        }
+                        ip += 2;
+                        break;
+                    case OpCode.LOOP:
+                        ip -= readShort(code, ip) - 2;
+                        break;
+                    case OpCode.CALL: {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        if (callValue(stack[stackTop - 1 - argCount], argCount, frame.closure.function.chunk.lines[ip - 1])) {
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                        break;
+                    }
+                    case OpCode.INVOKE: {
+                        Token name = (Token)constants[readShort(code, ip)];
+                        ip += 2;
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        if (invoke(name, argCount, frame.closure.function.chunk.lines[ip - 1])) {
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        VMFunction function = (VMFunction)constants[readShort(code, ip)];
+                        ip += 2;
+                        VMUpvalue[] upvalues = new VMUpvalue[function.upvalueCount];
+                        for (int i = 0; i < upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                        }
+                        push(new VMClosure(this, function, upvalues, null));
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(stackTop - 1);
+                        stack[--stackTop] = null;
+                        break;
+                    case OpCode.RETURN: {
+                        Object result = pop();
+                        VMClosure closure = frame.closure;
+                        if (closure.function.declaration != null && closure.function.kind != VMFunction.Kind.INITIALIZER) {
+                            frame.ip = ip;
+                            result = closure.checkReturn(result);
+                        }
+
+                        closeUpvalues(base);
+                        Arrays.fill(stack, base, stackTop, null);
+                        stackTop = base;
+                        frameCount--;
+                        if (frameCount == exitFrame) {
+                            return result;
+                        }
+
+                        push(result);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.CLASS: {
+                        Token name = (Token)constants[readShort(code, ip)];
+                        ip += 2;
+                        int methodCount = code[ip++] & 0xff;
+                        Map<String, ApertaFunction> methods = new HashMap<>();
+                        for (int i = stackTop - methodCount; i < stackTop; i++) {
+                            VMClosure method = (VMClosure)stack[i];
+                            methods.put(method.function.name, method);
+                        }
+                        Arrays.fill(stack, stackTop - methodCount, stackTop, null);
+                        stackTop -= methodCount;
+
+                        Object superclass = stack[stackTop - 1];
+                        if (superclass != null && !(superclass instanceof ApertaClass)) {
+                            throw new RuntimeError(name, "Superclass must be a class.");
+                        }
+                        stack[stackTop - 1] = new ApertaClass(name.lexeme, (ApertaClass)superclass, methods);
+                        break;
+                    }
+                    case OpCode.ARRAY: {
+                        int count = readShort(code, ip);
+                        ip += 2;
+                        Object[] elements = Arrays.copyOfRange(stack, stackTop - count, stackTop);
+                        Arrays.fill(stack, stackTop - count, stackTop, null);
+                        stackTop -= count;
+                        push(new ApertaArray(elements));
+                        break;
+                    }
+                    case OpCode.GET_INDEX: {
+                        Object index = pop();
+                        stack[stackTop - 1] = ApertaArray.getIndex(stack[stackTop - 1], index, errorToken(ip));
+                        break;
+                    }
+                    case OpCode.SET_INDEX: {
+                        Object value = pop();
+                        Object index = pop();
+                        stack[stackTop - 1] = ApertaArray.setIndex(stack[stackTop - 1], index, value, errorToken(ip));
+                        break;
+                    }
+                    case OpCode.ARRAY_CONSTANT: {
+                        push(Interpreter.materialize((Object[])constants[readShort(code, ip)]));
+                        ip += 2;
+                        break;
+                    }
+                    case OpCode.PREPROC: {
+                        Stmt.Preproc preproc = (Stmt.Preproc)constants[readShort(code, ip)];
+                        ip += 2;
+                        frame.ip = ip;
+                        preprocess(preproc);
+                        break;
+                    }
+                    default:
+                        throw new RuntimeError(errorToken(ip), "Unknown opcode " + code[ip - 1] + ".");
+                }
+            }
+        } finally {
+            frame.ip = ip;
+        }
+    }
+
+    private boolean callValue(Object callee, int argCount, int line) {
+        if (callee instanceof VMClosure) {
+            callClosure((VMClosure)callee, argCount, line);
+            return true;
+        }
+
+        Token paren = new Token(TokenType.RIGHT_PAREN, ")", null, line);
+        if (!(callee instanceof ApertaCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        ApertaCallable function = (ApertaCallable)callee;
+        if (argCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + argCount + ".");
+        }
+
+        List<Object> arguments = new ArrayList<>(Arrays.asList(stack).subList(stackTop - argCount, stackTop));
+        Object result;
+        try {
+            result = function.call(interpreter, arguments);
+        } catch (Error e) {
+            throw new RuntimeError(paren, e.getMessage());
+        }
+
+        Arrays.fill(stack, stackTop - argCount - 1, stackTop, null);
+        stackTop -= argCount + 1;
+        push(result);
+        return false;
+    }
+
+    /**
+     * Calls a method on the receiver sitting under the arguments. Compiled methods are called with the receiver
+     * already in slot 0, anything else falls back to looking the property up and calling whatever comes back.
+     */
+    private boolean invoke(Token name, int argCount, int line) {
+        Object receiver = stack[stackTop - 1 - argCount];
+        if (receiver instanceof ApertaInstance) {
+            ApertaInstance instance = (ApertaInstance)receiver;
+            if (instance.shape.indexOf(name.lexeme) == -1) {
+                ApertaFunction method = instance.klass.findMethod(name.lexeme);
+                if (method instanceof VMClosure) {
+                    callClosure((VMClosure)method, argCount, line);
+                    return true;
+                }
+            }
+        }
+
+        Object callee = getProperty(receiver, name);
+        stack[stackTop - 1 - argCount] = callee;
+        return callValue(callee, argCount, line);
+    }
+
+    private void callClosure(VMClosure closure, int argCount, int line) {
+        if (argCount != closure.function.arity) {
+            throw new RuntimeError(new Token(TokenType.RIGHT_PAREN, ")", null, line),
+                    "Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(new Token(TokenType.RIGHT_PAREN, ")", null, line), "Stack overflow.");
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = stackTop - argCount - 1;
+        if (closure.receiver != null) stack[frame.base] = closure.receiver;
+    }
+
+    private Object getProperty(Object object, Token name) {
+        if (object instanceof ApertaInstance) {
+            return ((ApertaInstance)object).get(name);
+        } else if (object instanceof ApertaClass) {
+            return ((ApertaClass)object).get(name);
+        } else if (object instanceof ApertaArray) {
+            return ((ApertaArray)object).get(name);
+        } else if (object instanceof ApertaTypedArray) {
+            return ((ApertaTypedArray)object).get(name);
+        } else if (object instanceof ApertaLineReader) {
+            return ((ApertaLineReader)object).get(name);
+        } else if (object instanceof ApertaBuffer) {
+            return ((ApertaBuffer)object).get(name);
+        } else if (object instanceof ApertaFile) {
+            return ((ApertaFile)object).get(name);
+        }
+
+        throw new RuntimeError(name, "Only instances and classes have properties.");
+    }
+
+    private Object setProperty(Object object, Token name, Object value) {
+        if (!(object instanceof ApertaInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+
+        ((ApertaInstance)object).set(name, value);
+        return value;
+    }
+
+    private void preprocess(Stmt.Preproc stmt) {
+        switch (stmt.type.lexeme) {
+            case "reference":
+            case "include":
+                break;
+            default:
+                throw new RuntimeError(stmt.type, "Invalid preprocessor type '" + stmt.type.lexeme + "'.");
+        }
+
+        ModuleRegistry.Module module;
+        try {
+            module = interpreter.modules.load((String)stmt.value.literal);
+        } catch (IOException e) {
+            throw new RuntimeError(stmt.value, e.getMessage());
+        }
+
+        // Same rules as the Interpreter, a reference only runs a module once, an include runs it every time.
+        boolean firstRun = interpreter.markExecuted(module);
+        if (stmt.type.lexeme.equals("reference") && !firstRun) return;
+
+        if (module.script == null) module.script = Compiler.compile(module.statements);
+        VMFunction script = module.script;
+        try {
+            call(new VMClosure(this, script, new VMUpvalue[0], null), null, new ArrayList<>());
+        } catch (RuntimeError error) {
+            ApertaLang.runtimeError(error);
+        }
+    }
+
+    private VMUpvalue captureUpvalue(int slot) {
+        VMUpvalue previous = null;
+        VMUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        VMUpvalue created = new VMUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VMUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.open = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private RuntimeError operandsError(int ip) {
+        return new RuntimeError(errorToken(ip), "Operands must be numbers");
+    }
+
+    /**
+     * Builds a token pointing at the line of the instruction that just ran, only used once something has gone wrong.
+     */
+    private Token errorToken(int ip) {
+        return new Token(TokenType.EOF, "", null, frames[frameCount - 1].closure.function.chunk.lines[ip - 1]);
+    }
+
+    private void push(Object value) {
+        if (stackTop == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--stackTop];
+        stack[stackTop] = null;
+        return value;
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+}
@@ -0,0 +1,66 @@
+package com.apertasoftware.apertalang;
+
+import java.util.List;
+
+/**
+ * A compiled function paired with the variables it captured.
+ * Extends ApertaFunction so ApertaClass can hold compiled methods the same way it holds interpreted ones.
+ */
+class VMClosure extends ApertaFunction {
+    final VM vm;
+    final VMFunction function;
+    final VMUpvalue[] upvalues;
+    final Object receiver;
+
+    VMClosure(VM vm, VMFunction function, VMUpvalue[] upvalues, Object receiver) {
+        super(function.declaration, null, function.kind == VMFunction.Kind.INITIALIZER);
+        this.vm = vm;
+        this.function = function;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
+    }
+
+    @Override
+    ApertaFunction bind(ApertaInstance instance) {
+        return new VMClosure(vm, function, upvalues, instance);
+    }
+
+    @Override
+    Object callMethod(Interpreter interpreter, ApertaInstance receiver, List<Object> arguments) {
+        return vm.call(this, receiver, arguments);
+    }
+
+    @Override
+    Object step(Interpreter interpreter, ApertaInstance receiver, List<Object> arguments) {
+        return vm.call(this, receiver != null ? receiver : this.receiver, arguments);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return vm.call(this, receiver, arguments);
+    }
+
+    @Override
+    public int arity() {
+        return function.arity;
+    }
+
+    @Override
+    public String toString() {
+        if (function.lambda == null) return function.toString();
+
+        StringBuilder returnString = new StringBuilder();
+        returnString.append("<lambda (");
+        boolean first = true;
+        for (Token parameter : function.lambda.parameters) {
+            if (first) {
+                returnString.append(parameter.lexeme);
+                first = false;
+            } else {
+                returnString.append(", " + parameter.lexeme);
+            }
+        }
+        returnString.append(")>");
+        return returnString.toString();
+    }
+}
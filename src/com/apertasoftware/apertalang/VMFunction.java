@@ -0,0 +1,35 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * The compiled prototype of a function, method, lambda or script. The VM wraps it in a VMClosure at runtime.
+ */
+class VMFunction {
+    enum Kind {
+        SCRIPT,
+        FUNCTION,
+        LAMBDA,
+        METHOD,
+        INITIALIZER
+    }
+
+    final Kind kind;
+    final String name;
+    final Chunk chunk = new Chunk();
+    final Stmt.Function declaration;
+    final Expr.Lambda lambda;
+    int arity = 0;
+    int upvalueCount = 0;
+
+    VMFunction(Kind kind, String name, Stmt.Function declaration, Expr.Lambda lambda) {
+        this.kind = kind;
+        this.name = name;
+        this.declaration = declaration;
+        this.lambda = lambda;
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.SCRIPT) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,17 @@
+package com.apertasoftware.apertalang;
+
+/**
+ * A variable captured by a closure. While the variable's scope is still alive it points at a slot on the VM stack,
+ * once the scope ends the value is moved into the upvalue itself.
+ */
+class VMUpvalue {
+    int slot;
+    Object closed;
+    boolean open = true;
+    VMUpvalue next;
+
+    VMUpvalue(int slot, VMUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
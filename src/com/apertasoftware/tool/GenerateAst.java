@@ -13,20 +13,22 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Array    : List<Expr> objects",
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Array    : List<Expr> objects | Object[] constant = null",
+                "Assign   : Token name, Expr value | int depth = -1, int slot = -1",
+                "Binary   : Expr left, Token operator, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
+                "Call     : Expr callee, Token paren, List<Expr> arguments | boolean tailCall = false",
+                "Get      : Expr object, Token name | Shape.CacheEntry cache = null",
                 "Grouping : Expr expression",
+                "Index    : Expr object, Token bracket, Expr index",
+                "IndexSet : Expr object, Token bracket, Expr index, Expr value",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
-                "Unary    : Token operator, Expr right",
+                "Set      : Expr object, Token name, Expr value | Shape.CacheEntry cache = null",
+                "Super    : Token keyword, Token method | int depth = -1",
+                "This     : Token keyword | int depth = -1",
+                "Unary    : Token operator, Expr right | UnaryNode node = UnaryNode.UNINITIALIZED",
                 "Lambda   : List<Token> parameters, List<Stmt> body",
-                "Variable : Token name"
+                "Variable : Token name | int depth = -1, int slot = -1"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
@@ -58,8 +60,9 @@ public class GenerateAst {
         // The AST classes.
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String mutableFields = fields.length > 1 ? fields[1].trim() : "";
+            defineType(writer, baseName, className, fields[0].trim(), mutableFields);
         }
 
         // The base accept() method.
@@ -81,7 +84,7 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String mutableFieldList) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         // Constructor
@@ -108,6 +111,14 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        // Mutable fields filled in after parsing, like the Resolver's results.
+        if (!mutableFieldList.isEmpty()) {
+            writer.println();
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
+
         writer.println("    }");
     }
 }